@@ -0,0 +1,104 @@
+package ru.nsu.g.akononov.proxy.benchmark;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+import static java.nio.channels.SelectionKey.*;
+
+class EchoServer implements Runnable, AutoCloseable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverSocket;
+    private final Thread thread;
+
+    EchoServer() throws IOException {
+        selector = Selector.open();
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        serverSocket.configureBlocking(false);
+        serverSocket.register(selector, OP_ACCEPT);
+
+        thread = new Thread(this, "echo-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverSocket.getLocalAddress();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select();
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    try {
+                        process(key);
+                    } catch (IOException e) {
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            }
+        } catch (IOException ignored) {
+        } finally {
+            closeChannels();
+        }
+    }
+
+    private void closeChannels() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void process(SelectionKey key) throws IOException {
+        if (key.isAcceptable()) {
+            SocketChannel channel;
+            while ((channel = serverSocket.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.register(selector, OP_READ, ByteBuffer.allocate(BUFFER_SIZE));
+            }
+            return;
+        }
+
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+        if (key.isReadable() && channel.read(buffer) == -1) {
+            key.cancel();
+            channel.close();
+            return;
+        }
+
+        buffer.flip();
+        channel.write(buffer);
+        buffer.compact();
+        key.interestOps(buffer.position() > 0 ? OP_WRITE : OP_READ);
+    }
+
+    @Override
+    public void close() {
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ru.nsu.g.akononov.proxy.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.AddressType;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.ConnectionMsg;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.ResponseCode;
+import ru.nsu.g.akononov.proxy.messages.greetingMessage.AuthMethod;
+import ru.nsu.g.akononov.proxy.messages.greetingMessage.GreetingMessage;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandshakeBenchmark {
+    private static final byte SOCKS_VERSION = 0x05;
+
+    @Param({"IPV4_ADDRESS", "DOMAIN_NAME", "IPV6_ADDRESS"})
+    private AddressType addressType;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    private final ByteBuffer output = ByteBuffer.allocate(1024);
+    private final GreetingMessage greetingMessage = new GreetingMessage();
+    private final ConnectionMsg connectionMsg = new ConnectionMsg();
+
+    private byte[] greeting;
+    private byte[] request;
+    private byte[] boundAddress;
+    private byte addressTypeValue;
+
+    @Setup
+    public void setUp() throws UnknownHostException {
+        greeting = new byte[]{SOCKS_VERSION, 0x03, 0x00, 0x01, 0x02};
+
+        ByteBuffer requestBuffer = ByteBuffer.allocate(262);
+        requestBuffer.put(SOCKS_VERSION).put((byte) 0x01).put((byte) 0x00).put(addressType.getValue());
+        switch (addressType) {
+            case IPV4_ADDRESS:
+                requestBuffer.put(InetAddress.getByName("93.184.216.34").getAddress());
+                break;
+            case IPV6_ADDRESS:
+                requestBuffer.put(InetAddress.getByName("2606:2800:220:1:248:1893:25c8:1946").getAddress());
+                break;
+            case DOMAIN_NAME:
+                byte[] domain = "www.example.com".getBytes(StandardCharsets.UTF_8);
+                requestBuffer.put((byte) domain.length).put(domain);
+                break;
+        }
+        requestBuffer.putShort((short) 443);
+        request = new byte[requestBuffer.position()];
+        requestBuffer.flip();
+        requestBuffer.get(request);
+
+        boundAddress = InetAddress.getLoopbackAddress().getAddress();
+        addressTypeValue = addressType.getValue();
+    }
+
+    @Benchmark
+    public boolean parseGreeting() {
+        buffer.clear();
+        buffer.put(greeting);
+        boolean isComplete = greetingMessage.read(buffer);
+        greetingMessage.consume(buffer);
+        return isComplete && greetingMessage.hasAuthMethod(AuthMethod.NO_AUTHENTICATION);
+    }
+
+    @Benchmark
+    public int parseConnectionRequest() {
+        buffer.clear();
+        buffer.put(request);
+        connectionMsg.read(buffer);
+        int port = connectionMsg.getPort();
+        connectionMsg.consume();
+        return port;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeGreetingResponse() {
+        output.clear();
+        GreetingMessage.putResponse(output, SOCKS_VERSION, AuthMethod.NO_AUTHENTICATION);
+        return output;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeResponse() {
+        output.clear();
+        ConnectionMsg.putResponse(output, SOCKS_VERSION, ResponseCode.REQUEST_GRANTED, boundAddress, 1080);
+        return output;
+    }
+
+    @Benchmark
+    public AddressType lookupAddressType() {
+        return AddressType.getByValue(addressTypeValue);
+    }
+}
@@ -0,0 +1,177 @@
+package ru.nsu.g.akononov.proxy.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.nio.channels.SelectionKey.*;
+
+class LoopbackClients implements AutoCloseable {
+    private static final byte SOCKS_VERSION = 0x05;
+    private static final int GREETING_RESPONSE_SIZE = 2;
+    private static final int CONNECTION_RESPONSE_SIZE = 10;
+    // Keeps the burst of pending connects below the proxy accept backlog
+    private static final int MAX_CONNECTING = 8;
+
+    private enum Phase {
+        CONNECTING, GREETING, REQUEST, ACTIVE
+    }
+
+    private static class Session {
+        private final SocketChannel channel;
+        private Phase phase = Phase.CONNECTING;
+        private ByteBuffer output;
+        private int expected;
+
+        Session(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final Selector selector;
+    private final InetSocketAddress proxyAddress;
+    private final byte[] greeting;
+    private final byte[] request;
+    private final ByteBuffer input = ByteBuffer.allocateDirect(64 * 1024);
+    private final List<Session> sessions = new ArrayList<>();
+
+    private int pending;
+    private int toOpen;
+    private int connecting;
+    private long bytesCount;
+
+    LoopbackClients(InetSocketAddress proxyAddress, InetSocketAddress destAddress) throws IOException {
+        this.selector = Selector.open();
+        this.proxyAddress = proxyAddress;
+
+        greeting = new byte[]{SOCKS_VERSION, 0x01, 0x00};
+
+        ByteBuffer requestBuffer = ByteBuffer.allocate(CONNECTION_RESPONSE_SIZE);
+        requestBuffer.put(SOCKS_VERSION).put((byte) 0x01).put((byte) 0x00).put((byte) 0x01);
+        requestBuffer.put(destAddress.getAddress().getAddress());
+        requestBuffer.putShort((short) destAddress.getPort());
+        request = requestBuffer.array();
+    }
+
+    void open(int count) throws IOException {
+        toOpen = count;
+        pending = count;
+        openMore();
+        drive();
+
+        for (SelectionKey key : selector.keys()) {
+            sessions.add((Session) key.attachment());
+        }
+    }
+
+    private void openMore() throws IOException {
+        for (; toOpen > 0 && connecting < MAX_CONNECTING; --toOpen, ++connecting) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+            channel.connect(proxyAddress);
+            channel.register(selector, OP_CONNECT, new Session(channel));
+        }
+    }
+
+    long exchange(ByteBuffer payload) throws IOException {
+        bytesCount = 0;
+        for (Session session : sessions) {
+            session.output = payload.duplicate();
+            session.expected = payload.remaining();
+            session.channel.keyFor(selector).interestOps(OP_READ | OP_WRITE);
+        }
+        pending = sessions.size();
+        drive();
+        return bytesCount;
+    }
+
+    void closeAll() throws IOException {
+        for (Session session : sessions) {
+            session.channel.close();
+        }
+        sessions.clear();
+        selector.selectNow();
+    }
+
+    private void drive() throws IOException {
+        while (pending > 0) {
+            selector.select();
+            Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+            while (iter.hasNext()) {
+                SelectionKey key = iter.next();
+                iter.remove();
+                process(key, (Session) key.attachment());
+            }
+        }
+    }
+
+    private void process(SelectionKey key, Session session) throws IOException {
+        if (key.isConnectable()) {
+            session.channel.finishConnect();
+            session.phase = Phase.GREETING;
+            send(key, session, greeting, GREETING_RESPONSE_SIZE);
+            return;
+        }
+
+        if (key.isWritable()) {
+            session.channel.write(session.output);
+            if (!session.output.hasRemaining()) {
+                key.interestOps(OP_READ);
+            }
+        }
+
+        if (key.isReadable()) {
+            input.clear();
+            int bytes = session.channel.read(input);
+            if (bytes == -1) {
+                throw new IOException("Proxy closed the connection in phase " + session.phase);
+            }
+            session.expected -= bytes;
+            if (session.phase == Phase.ACTIVE) {
+                bytesCount += bytes;
+            }
+            if (session.expected > 0) {
+                return;
+            }
+
+            switch (session.phase) {
+                case GREETING:
+                    session.phase = Phase.REQUEST;
+                    send(key, session, request, CONNECTION_RESPONSE_SIZE);
+                    break;
+                case REQUEST:
+                    session.phase = Phase.ACTIVE;
+                    key.interestOps(0);
+                    --pending;
+                    --connecting;
+                    openMore();
+                    break;
+                case ACTIVE:
+                    key.interestOps(0);
+                    --pending;
+                    break;
+            }
+        }
+    }
+
+    private void send(SelectionKey key, Session session, byte[] message, int responseSize) {
+        session.output = ByteBuffer.wrap(message);
+        session.expected = responseSize;
+        key.interestOps(OP_READ | OP_WRITE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeAll();
+        selector.close();
+    }
+}
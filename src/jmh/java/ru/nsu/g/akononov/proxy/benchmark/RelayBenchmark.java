@@ -0,0 +1,162 @@
+package ru.nsu.g.akononov.proxy.benchmark;
+
+import ch.qos.logback.classic.Level;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.nsu.g.akononov.proxy.channelClient.RelayStats;
+import ru.nsu.g.akononov.proxy.server.Proxy;
+import ru.nsu.g.akononov.proxy.server.ProxyConfig;
+import ru.nsu.g.akononov.proxy.server.ProxyEngine;
+import ru.nsu.g.akononov.proxy.server.Reactor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Every session holds four descriptors in this process, so 10000 connections need ulimit -n above 40000
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RelayBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Loopback {
+        @Param({"1", "100", "10000"})
+        public int connections;
+
+        @Param({"16384"})
+        public int payloadSize;
+
+        @Param({"NIO", "BLOCKING"})
+        public String engine;
+
+        private Thread proxyThread;
+        private ProxyEngine proxy;
+        private EchoServer echoServer;
+        private LoopbackClients clients;
+        private ByteBuffer payload;
+
+        @Setup
+        public void setUp() throws IOException, InterruptedException {
+            ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+            int proxyPort;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                proxyPort = socket.getLocalPort();
+            }
+            Properties properties = new Properties();
+            properties.putAll(System.getProperties());
+            properties.setProperty("socks.engine", engine);
+            proxy = ProxyEngine.create(new ProxyConfig(proxyPort, properties));
+            proxyThread = new Thread(proxy, "proxy");
+            proxyThread.setDaemon(true);
+            proxyThread.start();
+
+            echoServer = new EchoServer();
+            clients = new LoopbackClients(new InetSocketAddress(InetAddress.getLoopbackAddress(), proxyPort),
+                    echoServer.getAddress());
+
+            byte[] bytes = new byte[payloadSize];
+            ThreadLocalRandom.current().nextBytes(bytes);
+            payload = ByteBuffer.allocateDirect(payloadSize);
+            payload.put(bytes).flip();
+
+            awaitProxy(proxyPort);
+        }
+
+        private void awaitProxy(int proxyPort) throws InterruptedException {
+            while (true) {
+                try {
+                    new Socket(InetAddress.getLoopbackAddress(), proxyPort).close();
+                    return;
+                } catch (IOException e) {
+                    Thread.sleep(10);
+                }
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            clients.close();
+            echoServer.close();
+            proxyThread.interrupt();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Sessions {
+        private Loopback loopback;
+
+        @Setup
+        public void setUp(Loopback loopback) throws IOException {
+            this.loopback = loopback;
+            loopback.clients.open(loopback.connections);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            loopback.clients.closeAll();
+            if (!(loopback.proxy instanceof Proxy)) {
+                return;
+            }
+
+            long syscalls = 0;
+            long interestUpdates = 0;
+            long bytes = 0;
+            for (Reactor reactor : ((Proxy) loopback.proxy).getReactors()) {
+                RelayStats stats = reactor.getRelayStats();
+                syscalls += stats.getReadCalls() + stats.getWriteCalls();
+                interestUpdates += stats.getInterestUpdates();
+                bytes += stats.getBytesRead();
+            }
+            System.out.printf("%nrelay syscalls per MB: %.1f%n", syscalls * 1048576.0 / bytes);
+            System.out.printf("interest updates per MB: %.1f%n", interestUpdates * 1048576.0 / bytes);
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long handshakes;
+        public double megabytes;
+
+        @Setup(org.openjdk.jmh.annotations.Level.Iteration)
+        public void reset() {
+            handshakes = 0;
+            megabytes = 0;
+        }
+    }
+
+    @Benchmark
+    public void handshake(Loopback loopback, Counters counters) throws IOException {
+        loopback.clients.open(loopback.connections);
+        loopback.clients.closeAll();
+        counters.handshakes += loopback.connections;
+    }
+
+    @Benchmark
+    public void relay(Sessions sessions, Counters counters) throws IOException {
+        counters.megabytes += sessions.loopback.clients.exchange(sessions.loopback.payload) / 1048576.0;
+    }
+}
@@ -1,6 +1,7 @@
 package ru.nsu.g.akononov.proxy;
 
-import ru.nsu.g.akononov.proxy.server.Proxy;
+import ru.nsu.g.akononov.proxy.server.ProxyConfig;
+import ru.nsu.g.akononov.proxy.server.ProxyEngine;
 
 public class Main {
 
@@ -12,8 +13,8 @@ public class Main {
         int port = Integer.parseInt(args[0]);
 
         try {
-            Proxy proxy = new Proxy(port);
-            proxy.run();
+            ProxyEngine engine = ProxyEngine.create(new ProxyConfig(port, System.getProperties()));
+            engine.run();
         } catch (Exception exception){
             exception.printStackTrace();
         }
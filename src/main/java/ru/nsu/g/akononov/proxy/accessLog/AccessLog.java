@@ -0,0 +1,91 @@
+package ru.nsu.g.akononov.proxy.accessLog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.ResponseCode;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+public class AccessLog implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(AccessLog.class.getSimpleName());
+
+    private final BoundedQueue<AccessRecord> queue;
+    private final int sampleRate;
+    private final LongAdder droppedCount = new LongAdder();
+    private final AtomicBoolean consumerParked = new AtomicBoolean();
+    private Thread consumer;
+
+    public AccessLog(int queueSize, int sampleRate) {
+        this.queue = new BoundedQueue<>(queueSize);
+        this.sampleRate = sampleRate;
+    }
+
+    public boolean isEnabled() {
+        return sampleRate > 0;
+    }
+
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        consumer = new Thread(this, "access-log");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    public void onClosed(SocksClient socksClient) {
+        if (isSkipped(socksClient.getResponseCode())) {
+            return;
+        }
+        publish(new AccessRecord(socksClient, System.nanoTime()));
+    }
+
+    public void onClosed(AccessRecord record) {
+        if (isSkipped(record.getResponseCode())) {
+            return;
+        }
+        publish(record);
+    }
+
+    private boolean isSkipped(ResponseCode responseCode) {
+        if (!isEnabled()) {
+            return true;
+        }
+        return sampleRate > 1 && responseCode == ResponseCode.REQUEST_GRANTED
+                && ThreadLocalRandom.current().nextInt(sampleRate) != 0;
+    }
+
+    private void publish(AccessRecord record) {
+        if (!queue.offer(record)) {
+            droppedCount.increment();
+            return;
+        }
+        if (consumerParked.getAndSet(false)) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            AccessRecord record = queue.poll();
+            if (record == null) {
+                consumerParked.compareAndSet(false, true);
+                if (queue.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                consumerParked.set(false);
+                continue;
+            }
+            logger.info(record.format());
+        }
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+}
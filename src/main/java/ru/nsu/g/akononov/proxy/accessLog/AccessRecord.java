@@ -0,0 +1,62 @@
+package ru.nsu.g.akononov.proxy.accessLog;
+
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.RequestCode;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.ResponseCode;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+public class AccessRecord {
+    private final InetSocketAddress clientAddress;
+    private final RequestCode command;
+    private final String destDomain;
+    private final InetSocketAddress destAddress;
+    private final ResponseCode responseCode;
+    private final long replyTime;
+    private final long duration;
+    private final long clientToDestBytes;
+    private final long destToClientBytes;
+
+    AccessRecord(SocksClient socksClient, long closedAt) {
+        this(socksClient.getClientAddress(), socksClient.getRequestCode(), socksClient.getDestDomain(),
+                socksClient.getDestAddress(), socksClient.getResponseCode(),
+                socksClient.getRepliedAt() - socksClient.getAcceptedAt(), closedAt - socksClient.getAcceptedAt(),
+                socksClient.getClientToDestBytes(), socksClient.getDestToClientBytes());
+    }
+
+    public AccessRecord(InetSocketAddress clientAddress, RequestCode command, String destDomain,
+                        InetSocketAddress destAddress, ResponseCode responseCode, long replyTime, long duration,
+                        long clientToDestBytes, long destToClientBytes) {
+        this.clientAddress = clientAddress;
+        this.command = command;
+        this.destDomain = destDomain;
+        this.destAddress = destAddress;
+        this.responseCode = responseCode;
+        this.replyTime = replyTime;
+        this.duration = duration;
+        this.clientToDestBytes = clientToDestBytes;
+        this.destToClientBytes = destToClientBytes;
+    }
+
+    ResponseCode getResponseCode() {
+        return responseCode;
+    }
+
+    String format() {
+        StringBuilder line = new StringBuilder(160);
+        line.append("client=").append(clientAddress)
+                .append(" cmd=").append(command == null ? "-" : command.name())
+                .append(" dest=");
+        if (destDomain != null) {
+            line.append(destDomain).append('/');
+        }
+        line.append(destAddress == null ? "-" : destAddress.toString())
+                .append(" reply=").append(responseCode == null ? "-" : responseCode.name())
+                .append(" reply_ms=").append(responseCode == null ? -1 : TimeUnit.NANOSECONDS.toMillis(replyTime))
+                .append(" duration_ms=").append(TimeUnit.NANOSECONDS.toMillis(duration))
+                .append(" up=").append(clientToDestBytes)
+                .append(" down=").append(destToClientBytes);
+        return line.toString();
+    }
+}
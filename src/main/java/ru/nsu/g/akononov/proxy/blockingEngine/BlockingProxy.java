@@ -0,0 +1,209 @@
+package ru.nsu.g.akononov.proxy.blockingEngine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.nsu.g.akononov.proxy.accessLog.AccessLog;
+import ru.nsu.g.akononov.proxy.dnsResolver.DnsCache;
+import ru.nsu.g.akononov.proxy.metrics.MetricsServer;
+import ru.nsu.g.akononov.proxy.metrics.MetricsSource;
+import ru.nsu.g.akononov.proxy.metrics.PrometheusWriter;
+import ru.nsu.g.akononov.proxy.metrics.ProxyMetrics;
+import ru.nsu.g.akononov.proxy.server.AdmissionControl;
+import ru.nsu.g.akononov.proxy.server.AdmissionListener;
+import ru.nsu.g.akononov.proxy.server.ProxyConfig;
+import ru.nsu.g.akononov.proxy.server.ProxyEngine;
+import ru.nsu.g.akononov.proxy.timer.TimingWheel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BlockingProxy implements ProxyEngine, MetricsSource, AdmissionListener {
+    private static final Logger logger = LoggerFactory.getLogger(BlockingProxy.class.getSimpleName());
+
+    private static final byte SOCKS_VERSION = 0x05;
+    private static final int ACCEPT_POLL_INTERVAL = 500;
+    private static final long ACCEPT_RETRY_DELAY = 100;
+
+    private final ProxyConfig config;
+    private final DnsCache dnsCache;
+    private final ProxyMetrics metrics = new ProxyMetrics();
+    private final AccessLog accessLog;
+    private final AdmissionControl admissionControl;
+    private final MetricsServer metricsServer;
+    private final Object capacityLock = new Object();
+    private final LongAdder acceptPauses = new LongAdder();
+    private DnsService dnsService;
+
+    public BlockingProxy(ProxyConfig config) {
+        this.config = config;
+        this.dnsCache = new DnsCache(config.getDnsCacheSize(), config.getDnsNegativeTtlMs(), config.getDnsStaleTtlMs());
+        this.accessLog = new AccessLog(config.getAccessLogQueueSize(), config.getAccessLogSampleRate());
+        this.admissionControl = new AdmissionControl(config.getMaxClients(), config.getMaxClientsPerIp());
+        this.metricsServer = new MetricsServer(this, config.getMetricsTimeoutMs());
+        admissionControl.setListener(this);
+    }
+
+    @Override
+    public void run() {
+        Thread dnsThread = null;
+        Thread metricsThread = null;
+
+        try (ServerSocket serverSocket = new ServerSocket()) {
+            accessLog.start();
+            dnsService = new DnsService(config, dnsCache, metrics.getDnsLatency());
+            dnsThread = new Thread(dnsService, "dns");
+            dnsThread.setDaemon(true);
+            dnsThread.start();
+
+            if (config.getMetricsPort() != 0) {
+                Selector selector = Selector.open();
+                metricsServer.register(selector, config.getMetricsAddress());
+                metricsThread = new Thread(() -> serveMetrics(selector), "metrics");
+                metricsThread.setDaemon(true);
+                metricsThread.start();
+            }
+
+            ThreadFactory threadFactory = SessionThreads.newFactory("session-");
+
+            serverSocket.bind(new InetSocketAddress(config.getProxyPort()), config.getBacklog());
+            serverSocket.setSoTimeout(ACCEPT_POLL_INTERVAL);
+            logger.info("Waiting incoming connections on port {} with blocking sessions", config.getProxyPort());
+
+            while (!Thread.currentThread().isInterrupted()) {
+                if (!admissionControl.hasCapacity()) {
+                    waitForCapacity();
+                    continue;
+                }
+
+                Socket clientSocket;
+                try {
+                    clientSocket = serverSocket.accept();
+                } catch (SocketTimeoutException e) {
+                    continue;
+                } catch (IOException e) {
+                    logger.warn("Cannot accept: {}", e.getMessage());
+                    acceptPauses.increment();
+                    Thread.sleep(ACCEPT_RETRY_DELAY);
+                    continue;
+                }
+
+                InetSocketAddress clientAddress = (InetSocketAddress) clientSocket.getRemoteSocketAddress();
+                if (!admissionControl.tryAdmit(clientAddress.getAddress())) {
+                    logger.debug("Incoming connection from {} was REJECTED", clientAddress);
+                    closeQuietly(clientSocket);
+                    continue;
+                }
+
+                logger.debug("Incoming connection from {} was ACCEPTED", clientAddress);
+                threadFactory.newThread(new BlockingSession(clientSocket, clientAddress, this, threadFactory)).start();
+            }
+        } catch (IOException e) {
+            logger.error("Blocking proxy stopped", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (dnsThread != null) {
+                dnsThread.interrupt();
+            }
+            if (metricsThread != null) {
+                metricsThread.interrupt();
+            }
+        }
+    }
+
+    private void waitForCapacity() throws InterruptedException {
+        acceptPauses.increment();
+        synchronized (capacityLock) {
+            while (!admissionControl.hasCapacity()) {
+                capacityLock.wait(ACCEPT_POLL_INTERVAL);
+            }
+        }
+    }
+
+    @Override
+    public void onClientReleased() {
+        synchronized (capacityLock) {
+            capacityLock.notifyAll();
+        }
+    }
+
+    private void serveMetrics(Selector selector) {
+        try (Selector metricsSelector = selector) {
+            while (!Thread.currentThread().isInterrupted()) {
+                long deadline = metricsServer.getNextDeadline();
+                metricsSelector.select(deadline == 0 ? 0 : Math.max(1, deadline - TimingWheel.currentTime()));
+                metricsServer.closeExpired(TimingWheel.currentTime());
+
+                Iterator<SelectionKey> iter = metricsSelector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    if (metricsServer.owns(key)) {
+                        metricsServer.process(key);
+                    }
+                    iter.remove();
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Metrics endpoint stopped", e);
+        }
+    }
+
+    void release(InetSocketAddress clientAddress) {
+        admissionControl.release(clientAddress.getAddress());
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.warn("Cannot close socket: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void writeMetrics(PrometheusWriter writer) {
+        metrics.writeTo(writer);
+        writer.gauge("socks_admitted_clients", "Clients admitted and not yet closed", admissionControl.getClientsCount());
+        writer.counter("socks_admission_rejected_total", "Connections rejected by the per-IP cap",
+                admissionControl.getRejectedCount());
+        writer.counter("socks_accept_pauses_total", "Times accepting was paused", acceptPauses.sum());
+        writer.counter("socks_access_log_dropped_total", "Access log records dropped on a full queue",
+                accessLog.getDroppedCount());
+        writer.counter("socks_dns_cache_hits_total", "DNS cache hits", dnsCache.getHits());
+        writer.counter("socks_dns_cache_misses_total", "DNS cache misses", dnsCache.getMisses());
+        writer.counter("socks_dns_cache_evictions_total", "DNS cache entries evicted by the size limit",
+                dnsCache.getEvictions());
+    }
+
+    ProxyConfig getConfig() {
+        return config;
+    }
+
+    byte getSocksVersion() {
+        return SOCKS_VERSION;
+    }
+
+    DnsService getDnsService() {
+        return dnsService;
+    }
+
+    AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    public ProxyMetrics getMetrics() {
+        return metrics;
+    }
+
+    public DnsCache getDnsCache() {
+        return dnsCache;
+    }
+}
@@ -0,0 +1,276 @@
+package ru.nsu.g.akononov.proxy.blockingEngine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.nsu.g.akononov.proxy.accessLog.AccessRecord;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.AddressType;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.ConnectionMsg;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.RequestCode;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.ResponseCode;
+import ru.nsu.g.akononov.proxy.messages.greetingMessage.AuthMethod;
+import ru.nsu.g.akononov.proxy.messages.greetingMessage.GreetingMessage;
+import ru.nsu.g.akononov.proxy.metrics.ProxyMetrics;
+import ru.nsu.g.akononov.proxy.timer.TimingWheel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
+
+class BlockingSession implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(BlockingSession.class.getSimpleName());
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int RESPONSE_SIZE = 22;
+
+    private final Socket clientSocket;
+    private final InetSocketAddress clientAddress;
+    private final BlockingProxy proxy;
+    private final ProxyMetrics metrics;
+    private final ThreadFactory threadFactory;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer response = ByteBuffer.allocate(RESPONSE_SIZE);
+    private final GreetingMessage greeting = new GreetingMessage();
+    private final ConnectionMsg request = new ConnectionMsg();
+
+    private Socket destSocket;
+    private volatile long lastActivity;
+
+    private final long acceptedAt = System.nanoTime();
+    private long repliedAt;
+    private RequestCode command;
+    private String destDomain;
+    private InetSocketAddress destAddress;
+    private ResponseCode responseCode;
+    private long clientToDestBytes = 0;
+    private long destToClientBytes = 0;
+
+    BlockingSession(Socket clientSocket, InetSocketAddress clientAddress, BlockingProxy proxy,
+                    ThreadFactory threadFactory) {
+        this.clientSocket = clientSocket;
+        this.clientAddress = clientAddress;
+        this.proxy = proxy;
+        this.metrics = proxy.getMetrics();
+        this.threadFactory = threadFactory;
+    }
+
+    @Override
+    public void run() {
+        try (Socket client = clientSocket) {
+            InputStream clientInput = client.getInputStream();
+            OutputStream clientOutput = client.getOutputStream();
+
+            client.setSoTimeout(proxy.getConfig().getGreetingTimeoutMs());
+            if (!readGreeting(clientInput, clientOutput)) {
+                return;
+            }
+
+            client.setSoTimeout(proxy.getConfig().getRequestTimeoutMs());
+            if (!readRequest(clientInput, clientOutput)) {
+                return;
+            }
+
+            try (Socket dest = destSocket) {
+                relay(clientInput, dest.getOutputStream(), dest.getInputStream(), clientOutput);
+            }
+        } catch (SocketTimeoutException e) {
+            logger.debug("Client {} timed out during the handshake", clientSocket.getRemoteSocketAddress());
+        } catch (IOException | IllegalArgumentException e) {
+            logger.debug("Client {} failed: {}", clientSocket.getRemoteSocketAddress(), e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            proxy.getAccessLog().onClosed(new AccessRecord(clientAddress, command, destDomain, destAddress,
+                    responseCode, repliedAt - acceptedAt, System.nanoTime() - acceptedAt,
+                    clientToDestBytes, destToClientBytes));
+            proxy.release(clientAddress);
+        }
+    }
+
+    private boolean readGreeting(InputStream clientInput, OutputStream clientOutput) throws IOException {
+        do {
+            if (!fill(clientInput)) {
+                return false;
+            }
+        } while (!greeting.read(buffer));
+        greeting.consume(buffer);
+
+        if (greeting.getSocksVersion() != proxy.getSocksVersion()) {
+            logger.debug("Client {} uses unsupported SOCKS version", clientSocket.getRemoteSocketAddress());
+            return false;
+        }
+
+        AuthMethod authMethod = greeting.hasAuthMethod(AuthMethod.NO_AUTHENTICATION)
+                ? AuthMethod.NO_AUTHENTICATION : AuthMethod.NO_ACCEPTABLE_METHOD;
+        GreetingMessage.putResponse(response, proxy.getSocksVersion(), authMethod);
+        sendResponse(clientOutput);
+        return authMethod == AuthMethod.NO_AUTHENTICATION;
+    }
+
+    private boolean readRequest(InputStream clientInput, OutputStream clientOutput)
+            throws IOException, InterruptedException {
+        while (!request.read(buffer)) {
+            if (!fill(clientInput)) {
+                return false;
+            }
+        }
+
+        command = request.getRequestCommand();
+        if (request.getSocksVersion() != proxy.getSocksVersion()) {
+            logger.debug("Client {} uses unsupported SOCKS version", clientSocket.getRemoteSocketAddress());
+            return false;
+        }
+        if (request.getRequestCommand() != RequestCode.ESTABLISH_STREAM_CONNECTION) {
+            request.consume();
+            sendReply(clientOutput, ResponseCode.CMD_NOT_SUPPORTED);
+            return false;
+        }
+
+        InetAddress[] addresses;
+        int port = request.getPort();
+        if (request.getAddressType() == AddressType.DOMAIN_NAME) {
+            destDomain = request.getDomain();
+            addresses = proxy.getDnsService().resolve(destDomain);
+        } else {
+            destAddress = new InetSocketAddress(request.getAddress(), port);
+            addresses = new InetAddress[]{request.getAddress()};
+        }
+        request.consume();
+
+        if (addresses != null) {
+            destSocket = connect(addresses, port);
+        }
+        if (destSocket == null) {
+            sendReply(clientOutput, ResponseCode.HOST_UNREACHABLE);
+            return false;
+        }
+
+        destAddress = (InetSocketAddress) destSocket.getRemoteSocketAddress();
+        onReply(ResponseCode.REQUEST_GRANTED);
+        ConnectionMsg.putResponse(response, proxy.getSocksVersion(), ResponseCode.REQUEST_GRANTED,
+                destSocket.getLocalAddress().getAddress(), destSocket.getLocalPort());
+        sendResponse(clientOutput);
+        return true;
+    }
+
+    private Socket connect(InetAddress[] addresses, int port) {
+        int connectTimeout = proxy.getConfig().getConnectTimeoutMs();
+        for (InetAddress address : addresses) {
+            long startedAt = System.nanoTime();
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(address, port), connectTimeout);
+                metrics.getConnectLatency().recordNanos(startedAt);
+                return socket;
+            } catch (IOException e) {
+                logger.debug("Cannot connect to {}:{}: {}", address, port, e.getMessage());
+                closeQuietly(socket);
+            }
+        }
+        return null;
+    }
+
+    private void relay(InputStream clientInput, OutputStream destOutput, InputStream destInput,
+                       OutputStream clientOutput) throws IOException, InterruptedException {
+        int idleTimeout = proxy.getConfig().getIdleTimeoutMs();
+        clientSocket.setSoTimeout(idleTimeout);
+        destSocket.setSoTimeout(idleTimeout);
+        lastActivity = TimingWheel.currentTime();
+
+        if (buffer.position() > 0) {
+            destOutput.write(buffer.array(), 0, buffer.position());
+            clientToDestBytes += buffer.position();
+            metrics.onClientToDest(buffer.position());
+        }
+
+        Thread destToClient = threadFactory.newThread(() ->
+                transfer(destInput, clientOutput, clientSocket, new byte[BUFFER_SIZE], false));
+        destToClient.start();
+        transfer(clientInput, destOutput, destSocket, buffer.array(), true);
+        destToClient.join();
+    }
+
+    private void transfer(InputStream input, OutputStream output, Socket target, byte[] bytes, boolean fromClient) {
+        int idleTimeout = proxy.getConfig().getIdleTimeoutMs();
+        try {
+            while (true) {
+                int count;
+                try {
+                    count = input.read(bytes);
+                } catch (SocketTimeoutException e) {
+                    if (TimingWheel.currentTime() - lastActivity >= idleTimeout) {
+                        logger.debug("Client {} is idle", clientSocket.getRemoteSocketAddress());
+                        closeBoth();
+                        return;
+                    }
+                    continue;
+                }
+                if (count == -1) {
+                    break;
+                }
+
+                output.write(bytes, 0, count);
+                lastActivity = TimingWheel.currentTime();
+                if (fromClient) {
+                    clientToDestBytes += count;
+                    metrics.onClientToDest(count);
+                } else {
+                    destToClientBytes += count;
+                    metrics.onDestToClient(count);
+                }
+            }
+            target.shutdownOutput();
+        } catch (IOException e) {
+            logger.debug("Relay for {} failed: {}", clientSocket.getRemoteSocketAddress(), e.getMessage());
+            closeBoth();
+        }
+    }
+
+    private boolean fill(InputStream input) throws IOException {
+        if (!buffer.hasRemaining()) {
+            throw new IOException("Handshake message is too long");
+        }
+        int count = input.read(buffer.array(), buffer.position(), buffer.remaining());
+        if (count == -1) {
+            return false;
+        }
+        buffer.position(buffer.position() + count);
+        return true;
+    }
+
+    private void sendReply(OutputStream clientOutput, ResponseCode responseCode) throws IOException {
+        onReply(responseCode);
+        ConnectionMsg.putResponse(response, proxy.getSocksVersion(), responseCode,
+                clientSocket.getLocalAddress().getAddress(), clientSocket.getLocalPort());
+        sendResponse(clientOutput);
+    }
+
+    private void onReply(ResponseCode responseCode) {
+        this.responseCode = responseCode;
+        repliedAt = System.nanoTime();
+    }
+
+    private void sendResponse(OutputStream clientOutput) throws IOException {
+        clientOutput.write(response.array(), 0, response.position());
+        response.clear();
+    }
+
+    private void closeBoth() {
+        closeQuietly(clientSocket);
+        closeQuietly(destSocket);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.warn("Cannot close socket: {}", e.getMessage());
+        }
+    }
+}
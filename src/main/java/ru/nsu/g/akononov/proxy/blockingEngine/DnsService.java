@@ -0,0 +1,87 @@
+package ru.nsu.g.akononov.proxy.blockingEngine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.TextParseException;
+import ru.nsu.g.akononov.proxy.dnsResolver.DnsCache;
+import ru.nsu.g.akononov.proxy.dnsResolver.DnsResolver;
+import ru.nsu.g.akononov.proxy.metrics.Histogram;
+import ru.nsu.g.akononov.proxy.server.ProxyConfig;
+import ru.nsu.g.akononov.proxy.timer.TimingWheel;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+class DnsService implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(DnsService.class.getSimpleName());
+
+    private final Selector selector;
+    private final TimingWheel timingWheel;
+    private final DnsResolver dnsResolver;
+    private final long resolveTimeout;
+    private final Queue<Runnable> requests = new ConcurrentLinkedQueue<>();
+
+    DnsService(ProxyConfig config, DnsCache dnsCache, Histogram resolveLatency) throws IOException {
+        this.selector = Selector.open();
+        this.timingWheel = new TimingWheel(config.getTimerTickMs(), config.getTimerWheelSize());
+        this.dnsResolver = new DnsResolver(selector, config.getDnsServer(), dnsCache, timingWheel,
+                config.getDnsRetransmitMs(), config.getDnsTimeoutMs(), resolveLatency);
+        this.resolveTimeout = config.getDnsTimeoutMs() + config.getDnsRetransmitMs();
+    }
+
+    InetAddress[] resolve(String domain) throws InterruptedException {
+        CompletableFuture<InetAddress[]> result = new CompletableFuture<>();
+        requests.add(() -> {
+            try {
+                dnsResolver.resolve(domain, result::complete);
+            } catch (TextParseException e) {
+                result.complete(null);
+            }
+        });
+        selector.wakeup();
+
+        try {
+            return result.get(resolveTimeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void run() {
+        try (Selector selector = this.selector) {
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select(timingWheel.getSelectTimeout());
+                timingWheel.advance();
+
+                Runnable request;
+                while ((request = requests.poll()) != null) {
+                    request.run();
+                }
+
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    if (key.isValid() && key.isReadable()) {
+                        dnsResolver.readDNSMessage(key);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        dnsResolver.sendDNSRequest(key);
+                    }
+                    iter.remove();
+                }
+            }
+        } catch (IOException e) {
+            logger.error("DNS service stopped", e);
+        }
+    }
+}
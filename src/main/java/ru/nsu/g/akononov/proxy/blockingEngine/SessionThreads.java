@@ -0,0 +1,41 @@
+package ru.nsu.g.akononov.proxy.blockingEngine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class SessionThreads {
+    private static final Logger logger = LoggerFactory.getLogger(SessionThreads.class.getSimpleName());
+
+    private static final long PLATFORM_STACK_SIZE = 256 * 1024;
+
+    private SessionThreads() {
+    }
+
+    // Thread.ofVirtual() is looked up reflectively so that the proxy still builds for and runs on Java 11.
+    static ThreadFactory newFactory(String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            Method factory = builderClass.getMethod("factory");
+
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = name.invoke(builder, prefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) factory.invoke(builder);
+            logger.info("Sessions run on virtual threads");
+            return threadFactory;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.info("Virtual threads are unavailable, sessions run on platform threads");
+        }
+
+        AtomicLong counter = new AtomicLong();
+        return task -> {
+            Thread thread = new Thread(null, task, prefix + counter.getAndIncrement(), PLATFORM_STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,115 @@
+package ru.nsu.g.akononov.proxy.bufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class BufferPool {
+    private final int minChunkSize;
+    private final int slabSize;
+    private final MemoryBudget memoryBudget;
+
+    private final List<Deque<ByteBuffer>> freeChunks;
+    private final AtomicLongArray chunksInUse;
+    private final AtomicLongArray slabsCount;
+
+    public BufferPool(int minChunkSize, int maxChunkSize, int chunksPerSlab, MemoryBudget memoryBudget) {
+        if (minChunkSize < 1 || chunksPerSlab < 1 || maxChunkSize < minChunkSize) {
+            throw new IllegalArgumentException("Bad chunk sizes");
+        }
+        this.minChunkSize = minChunkSize;
+        this.slabSize = minChunkSize * chunksPerSlab;
+        this.memoryBudget = memoryBudget;
+
+        int classesCount = 1;
+        while ((long) minChunkSize << classesCount <= maxChunkSize) {
+            ++classesCount;
+        }
+
+        freeChunks = new ArrayList<>(classesCount);
+        for (int i = 0; i < classesCount; ++i) {
+            freeChunks.add(new ArrayDeque<>());
+        }
+        chunksInUse = new AtomicLongArray(classesCount);
+        slabsCount = new AtomicLongArray(classesCount);
+    }
+
+    public ByteBuffer acquire(int sizeClass) {
+        for (int cls = sizeClass; cls >= 0; --cls) {
+            if (!freeChunks.get(cls).isEmpty() || allocateSlab(cls)) {
+                return take(cls);
+            }
+        }
+        for (int cls = sizeClass + 1; cls < freeChunks.size(); ++cls) {
+            if (!freeChunks.get(cls).isEmpty()) {
+                return take(cls);
+            }
+        }
+        return null;
+    }
+
+    private ByteBuffer take(int sizeClass) {
+        chunksInUse.incrementAndGet(sizeClass);
+        return freeChunks.get(sizeClass).pollFirst();
+    }
+
+    public void release(ByteBuffer chunk) {
+        int sizeClass = getSizeClass(chunk.capacity());
+        chunk.clear();
+        freeChunks.get(sizeClass).addFirst(chunk);
+        chunksInUse.decrementAndGet(sizeClass);
+    }
+
+    private boolean allocateSlab(int sizeClass) {
+        int chunkSize = getChunkSize(sizeClass);
+        int chunksCount = getChunksPerSlab(sizeClass);
+        int bytes = chunkSize * chunksCount;
+        if (!memoryBudget.tryReserve(bytes)) {
+            return false;
+        }
+
+        ByteBuffer slab = ByteBuffer.allocateDirect(bytes);
+        for (int i = 0; i < chunksCount; ++i) {
+            slab.limit((i + 1) * chunkSize);
+            slab.position(i * chunkSize);
+            freeChunks.get(sizeClass).addLast(slab.slice());
+        }
+        slabsCount.incrementAndGet(sizeClass);
+        return true;
+    }
+
+    private int getChunksPerSlab(int sizeClass) {
+        return Math.max(1, slabSize / getChunkSize(sizeClass));
+    }
+
+    public int getSizeClass(int chunkSize) {
+        return Integer.numberOfTrailingZeros(chunkSize / minChunkSize);
+    }
+
+    public int getClassesCount() {
+        return freeChunks.size();
+    }
+
+    public int getChunkSize(int sizeClass) {
+        return minChunkSize << sizeClass;
+    }
+
+    public long getChunksInUse(int sizeClass) {
+        return chunksInUse.get(sizeClass);
+    }
+
+    public long getFreeChunks(int sizeClass) {
+        return getSlabsCount(sizeClass) * getChunksPerSlab(sizeClass) - getChunksInUse(sizeClass);
+    }
+
+    public long getSlabsCount(int sizeClass) {
+        return slabsCount.get(sizeClass);
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+}
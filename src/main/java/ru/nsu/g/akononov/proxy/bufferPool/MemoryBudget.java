@@ -0,0 +1,31 @@
+package ru.nsu.g.akononov.proxy.bufferPool;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MemoryBudget {
+    private final long limit;
+    private final AtomicLong allocated = new AtomicLong();
+
+    public MemoryBudget(long limit) {
+        this.limit = limit;
+    }
+
+    public boolean tryReserve(long bytes) {
+        long current;
+        do {
+            current = allocated.get();
+            if (current + bytes > limit) {
+                return false;
+            }
+        } while (!allocated.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getAllocated() {
+        return allocated.get();
+    }
+}
@@ -5,6 +5,7 @@ import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
 public class ChannelAttachment {
     private final ChannelRole socketChannelRole;
     private final SocksClient socksClient;
+    private long lastReadLoop = -1;
 
     public ChannelAttachment(SocksClient socksClient, ChannelRole socketChannelSide) {
         this.socksClient = socksClient;
@@ -15,6 +16,14 @@ public class ChannelAttachment {
         return socksClient;
     }
 
+    public long getLastReadLoop() {
+        return lastReadLoop;
+    }
+
+    public void setLastReadLoop(long lastReadLoop) {
+        this.lastReadLoop = lastReadLoop;
+    }
+
     public boolean isClient(){
         return socketChannelRole == ChannelRole.CLIENT;
     }
@@ -26,4 +35,16 @@ public class ChannelAttachment {
     public boolean isDNS(){
         return socketChannelRole == ChannelRole.DNS;
     }
+
+    public boolean isUdp(){
+        return socketChannelRole == ChannelRole.UDP;
+    }
+
+    public boolean isBind(){
+        return socketChannelRole == ChannelRole.BIND;
+    }
+
+    public boolean isPooled(){
+        return socketChannelRole == ChannelRole.POOLED;
+    }
 }
\ No newline at end of file
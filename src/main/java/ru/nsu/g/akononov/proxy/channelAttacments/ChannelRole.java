@@ -3,5 +3,8 @@ package ru.nsu.g.akononov.proxy.channelAttacments;
 public enum ChannelRole {
     CLIENT,
     DESTINATION,
-    DNS
+    DNS,
+    UDP,
+    BIND,
+    POOLED
 }
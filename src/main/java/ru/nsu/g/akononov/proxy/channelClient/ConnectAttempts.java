@@ -0,0 +1,91 @@
+package ru.nsu.g.akononov.proxy.channelClient;
+
+import ru.nsu.g.akononov.proxy.timer.Timeout;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ConnectAttempts {
+    private final InetAddress[] addresses;
+    private final int port;
+    private final List<SelectionKey> pendingKeys = new ArrayList<>();
+    private final long startedAt = System.nanoTime();
+
+    private int nextAddress = 0;
+    private boolean refused = true;
+    private Timeout attemptDelay;
+
+    public ConnectAttempts(InetAddress[] addresses, int port) {
+        this.addresses = addresses;
+        this.port = port;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public boolean hasNextAddress() {
+        return nextAddress < addresses.length;
+    }
+
+    public InetSocketAddress nextAddress() {
+        return new InetSocketAddress(addresses[nextAddress++], port);
+    }
+
+    public void onFailed(IOException cause) {
+        refused &= cause instanceof ConnectException;
+    }
+
+    public boolean isRefused() {
+        return refused;
+    }
+
+    public void addPending(SelectionKey selectionKey) {
+        pendingKeys.add(selectionKey);
+    }
+
+    public void removePending(SelectionKey selectionKey) {
+        pendingKeys.remove(selectionKey);
+    }
+
+    public boolean hasPending() {
+        return !pendingKeys.isEmpty();
+    }
+
+    public void setAttemptDelay(Timeout attemptDelay) {
+        cancelAttemptDelay();
+        this.attemptDelay = attemptDelay;
+    }
+
+    public void cancelAttemptDelay() {
+        if (attemptDelay != null) {
+            attemptDelay.cancel();
+            attemptDelay = null;
+        }
+    }
+
+    public void cancel() throws IOException {
+        cancelAttemptDelay();
+        nextAddress = addresses.length;
+
+        IOException closeException = null;
+        for (SelectionKey selectionKey : pendingKeys) {
+            selectionKey.cancel();
+            try {
+                selectionKey.channel().close();
+            } catch (IOException e) {
+                closeException = e;
+            }
+        }
+        pendingKeys.clear();
+
+        if (closeException != null) {
+            throw closeException;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package ru.nsu.g.akononov.proxy.channelClient;
+
+import ru.nsu.g.akononov.proxy.bufferPool.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+public class RelayBuffer {
+    private static final int SHRINK_AFTER_SMALL_READS = 8;
+
+    private final BufferPool bufferPool;
+    private final RelayStats stats;
+
+    private final ByteBuffer[] segments;
+    private final int[] readIndexes;
+    private final int[] writeIndexes;
+    private int segmentsCount = 0;
+    private boolean isExposed = false;
+    private boolean isStarved = false;
+
+    private int sizeClass = 0;
+    private int smallReadsCount = 0;
+
+    public RelayBuffer(BufferPool bufferPool, RelayStats stats, int maxSegments) {
+        this.bufferPool = bufferPool;
+        this.stats = stats;
+
+        segments = new ByteBuffer[maxSegments];
+        readIndexes = new int[maxSegments];
+        writeIndexes = new int[maxSegments];
+    }
+
+    public ByteBuffer get() throws IOException {
+        sync();
+        if (segmentsCount == 0) {
+            if (!addSegment(sizeClass)) {
+                throw new IOException("Buffer memory limit exceeded");
+            }
+        } else if (segmentsCount > 1 || readIndexes[0] > 0) {
+            coalesce();
+        }
+
+        ByteBuffer head = segments[0];
+        head.limit(head.capacity()).position(writeIndexes[0]);
+        isExposed = true;
+        return head;
+    }
+
+    public long readFrom(ScatteringByteChannel channel, long maxBytes) throws IOException {
+        sync();
+        if (segmentsCount == 0 || isTailFull()) {
+            if (segmentsCount == segments.length) {
+                return 0;
+            }
+            if (!addSegment(sizeClass)) {
+                if (segmentsCount == 0) {
+                    throw new IOException("Buffer memory limit exceeded");
+                }
+                isStarved = true;
+                return 0;
+            }
+        }
+        if (segmentsCount < segments.length && getTailSpace() < bufferPool.getChunkSize(sizeClass) / 2) {
+            addSegment(sizeClass);
+        }
+
+        int first = firstWritableSegment();
+        long offered = 0;
+        for (int i = first; i < segmentsCount; ++i) {
+            int length = (int) Math.min(segments[i].capacity() - writeIndexes[i], maxBytes - offered);
+            segments[i].limit(writeIndexes[i] + length).position(writeIndexes[i]);
+            offered += length;
+        }
+
+        long bytesCount = channel.read(segments, first, segmentsCount - first);
+        stats.onRead(bytesCount);
+
+        for (int i = first; i < segmentsCount; ++i) {
+            writeIndexes[i] = segments[i].position();
+        }
+        releaseEmptySegments();
+
+        if (bytesCount > 0 && offered < maxBytes) {
+            adapt(bytesCount, offered);
+        }
+        return bytesCount;
+    }
+
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        sync();
+        if (segmentsCount == 0) {
+            return 0;
+        }
+
+        for (int i = 0; i < segmentsCount; ++i) {
+            segments[i].limit(writeIndexes[i]).position(readIndexes[i]);
+        }
+
+        long bytesCount = channel.write(segments, 0, segmentsCount);
+        stats.onWrite(bytesCount);
+        if (bytesCount > 0) {
+            isStarved = false;
+        }
+
+        for (int i = 0; i < segmentsCount; ++i) {
+            readIndexes[i] = segments[i].position();
+        }
+        releaseEmptySegments();
+        return bytesCount;
+    }
+
+    private void adapt(long bytesCount, long offered) {
+        int maxSizeClass = bufferPool.getClassesCount() - 1;
+
+        if (bytesCount == offered) {
+            smallReadsCount = 0;
+            if (sizeClass < maxSizeClass) {
+                ++sizeClass;
+            }
+        } else if (bytesCount < bufferPool.getChunkSize(sizeClass) / 4) {
+            if (++smallReadsCount >= SHRINK_AFTER_SMALL_READS && sizeClass > 0) {
+                --sizeClass;
+                smallReadsCount = 0;
+            }
+        } else {
+            smallReadsCount = 0;
+        }
+    }
+
+    private void sync() {
+        if (isExposed) {
+            writeIndexes[0] = segments[0].position();
+            isExposed = false;
+            releaseEmptySegments();
+        }
+    }
+
+    private boolean addSegment(int preferredSizeClass) {
+        ByteBuffer segment = bufferPool.acquire(preferredSizeClass);
+        if (segment == null) {
+            return false;
+        }
+        segments[segmentsCount] = segment;
+        readIndexes[segmentsCount] = 0;
+        writeIndexes[segmentsCount] = 0;
+        ++segmentsCount;
+        return true;
+    }
+
+    private void coalesce() throws IOException {
+        int dataSize = 0;
+        for (int i = 0; i < segmentsCount; ++i) {
+            dataSize += writeIndexes[i] - readIndexes[i];
+        }
+
+        int targetClass = 0;
+        while (bufferPool.getChunkSize(targetClass) < dataSize) {
+            if (++targetClass == bufferPool.getClassesCount()) {
+                throw new IOException("Relay data does not fit into one chunk");
+            }
+        }
+
+        ByteBuffer target = bufferPool.acquire(Math.max(targetClass, sizeClass));
+        if (target == null) {
+            throw new IOException("Buffer memory limit exceeded");
+        }
+        if (target.capacity() < dataSize) {
+            bufferPool.release(target);
+            throw new IOException("Relay data does not fit into one chunk");
+        }
+
+        for (int i = 0; i < segmentsCount; ++i) {
+            segments[i].limit(writeIndexes[i]).position(readIndexes[i]);
+            target.put(segments[i]);
+            bufferPool.release(segments[i]);
+            segments[i] = null;
+        }
+
+        segments[0] = target;
+        readIndexes[0] = 0;
+        writeIndexes[0] = target.position();
+        segmentsCount = 1;
+    }
+
+    private void releaseEmptySegments() {
+        int kept = 0;
+        for (int i = 0; i < segmentsCount; ++i) {
+            if (readIndexes[i] == writeIndexes[i]) {
+                bufferPool.release(segments[i]);
+            } else {
+                segments[kept] = segments[i];
+                readIndexes[kept] = readIndexes[i];
+                writeIndexes[kept] = writeIndexes[i];
+                ++kept;
+            }
+        }
+        for (int i = kept; i < segmentsCount; ++i) {
+            segments[i] = null;
+        }
+        segmentsCount = kept;
+    }
+
+    private int firstWritableSegment() {
+        int tail = segmentsCount - 1;
+        while (tail > 0 && writeIndexes[tail - 1] < segments[tail - 1].capacity() && writeIndexes[tail] == 0) {
+            --tail;
+        }
+        return tail;
+    }
+
+    private boolean isTailFull() {
+        return getTailSpace() == 0;
+    }
+
+    private int getTailSpace() {
+        int tail = segmentsCount - 1;
+        return segments[tail].capacity() - writeIndexes[tail];
+    }
+
+    public boolean hasData() {
+        sync();
+        return segmentsCount > 0;
+    }
+
+    public boolean isFull() {
+        sync();
+        return isStarved || segmentsCount == segments.length && isTailFull();
+    }
+
+    public void releaseIfEmpty() {
+        sync();
+        releaseEmptySegments();
+    }
+
+    public void release() {
+        sync();
+        for (int i = 0; i < segmentsCount; ++i) {
+            bufferPool.release(segments[i]);
+            segments[i] = null;
+        }
+        segmentsCount = 0;
+        isStarved = false;
+    }
+
+    public int getSizeClass() {
+        return sizeClass;
+    }
+}
@@ -0,0 +1,47 @@
+package ru.nsu.g.akononov.proxy.channelClient;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class RelayStats {
+    private final LongAdder readCalls = new LongAdder();
+    private final LongAdder writeCalls = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder interestUpdates = new LongAdder();
+
+    void onRead(long bytesCount) {
+        readCalls.increment();
+        if (bytesCount > 0) {
+            bytesRead.add(bytesCount);
+        }
+    }
+
+    void onWrite(long bytesCount) {
+        writeCalls.increment();
+        bytesWritten.add(bytesCount);
+    }
+
+    public void addInterestUpdates(int count) {
+        interestUpdates.add(count);
+    }
+
+    public long getReadCalls() {
+        return readCalls.sum();
+    }
+
+    public long getWriteCalls() {
+        return writeCalls.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getInterestUpdates() {
+        return interestUpdates.sum();
+    }
+}
@@ -1,19 +1,21 @@
 package ru.nsu.g.akononov.proxy.channelClient;
 
-import ru.nsu.g.akononov.proxy.messages.connectionMessages.ConnectionMsg;
-import ru.nsu.g.akononov.proxy.messages.greetingMessage.GreetingMessage;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.RequestCode;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.ResponseCode;
+import ru.nsu.g.akononov.proxy.rateLimiter.TokenBucket;
+import ru.nsu.g.akononov.proxy.timer.Timeout;
+import ru.nsu.g.akononov.proxy.udpRelay.UdpAssociation;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
 public class SocksClient {
-    private static final int BUF_SIZE = 1024;
-
+    private InetSocketAddress clientAddress;
     private InetSocketAddress destAddress;
+    private String destDomain;
     private SocksClientState socksClientState;
 
     private final SocketChannel clientSocketChannel;
@@ -22,52 +24,138 @@ public class SocksClient {
     private final SelectionKey clientSelectionKey;
     private SelectionKey destSelectionKey;
 
-    private final ByteBuffer clientToDestBuffer = ByteBuffer.allocate(BUF_SIZE);
-    private final ByteBuffer destToClientBuffer = ByteBuffer.allocate(BUF_SIZE);
+    private int clientInterest;
+    private int clientAppliedInterest;
+    private int destInterest;
+    private int destAppliedInterest;
+    private boolean interestChanged;
+
+    private final RelayBuffer clientToDestBuffer;
+    private final RelayBuffer destToClientBuffer;
+
+    private UdpAssociation udpAssociation;
+    private SelectionKey bindSelectionKey;
+    private ConnectAttempts connectAttempts;
+
+    private final SocksClientListener listener;
+    private Timeout timeout;
+    private long lastActivity;
+    private long phaseStart;
+
+    private final long acceptedAt = System.nanoTime();
+    private long repliedAt;
+    private RequestCode requestCode;
+    private ResponseCode responseCode;
+    private long clientToDestBytes;
+    private long destToClientBytes;
+
+    private TokenBucket clientBucket;
+    private TokenBucket destBucket;
+    private Timeout clientReadPause;
+    private Timeout destReadPause;
+    private String breakerKey;
 
     private boolean closeUponSending;
 
-    public SocksClient(SocketChannel clientSocketChannel, SelectionKey clientSelectionKey) {
+    public SocksClient(SocketChannel clientSocketChannel, SelectionKey clientSelectionKey,
+                       RelayBuffer clientToDestBuffer, RelayBuffer destToClientBuffer,
+                       SocksClientListener listener) {
 
         this.clientSocketChannel = clientSocketChannel;
         this.clientSelectionKey = clientSelectionKey;
+        this.clientToDestBuffer = clientToDestBuffer;
+        this.destToClientBuffer = destToClientBuffer;
+        this.listener = listener;
 
-        socksClientState = SocksClientState.RECV_INIT_GREETING;
+        clientInterest = clientAppliedInterest = clientSelectionKey.interestOps();
         closeUponSending = false;
     }
 
-    public GreetingMessage getClientGreeting() throws IllegalArgumentException {
-        clientToDestBuffer.mark();
-        try {
-            return new GreetingMessage(clientToDestBuffer);
+    public void closeClientSide() throws IOException {
+        clientSelectionKey.cancel();
+        clientSocketChannel.close();
+        if (udpAssociation != null) {
+            udpAssociation.close();
+        }
+        setSocksClientState(SocksClientState.CLOSED);
+        releaseResourcesIfClosed();
+    }
+
+    public void closeDestSide() throws IOException {
+        closeBindChannel();
+        cancelConnectAttempts();
+        if (destSocketChannel != null) {
+            destSelectionKey.cancel();
+            destSocketChannel.close();
+        }
+        setSocksClientState(SocksClientState.CLOSED);
+        releaseResourcesIfClosed();
+    }
 
-        } catch (BufferUnderflowException bue) {
-            clientToDestBuffer.reset();
-            return null;
+    public void closeBindChannel() throws IOException {
+        if (bindSelectionKey != null) {
+            bindSelectionKey.cancel();
+            bindSelectionKey.channel().close();
+            bindSelectionKey = null;
         }
     }
 
-    public ConnectionMsg getClientConnectionRequest() throws IllegalArgumentException {
-        clientToDestBuffer.mark();
+    private void cancelConnectAttempts() throws IOException {
+        if (connectAttempts != null) {
+            connectAttempts.cancel();
+            connectAttempts = null;
+        }
+    }
+
+    public void abortDestConnection() throws IOException {
+        cancelConnectAttempts();
+        if (destSocketChannel != null) {
+            destSelectionKey.cancel();
+            destSocketChannel.close();
+            destSelectionKey = null;
+            destSocketChannel = null;
+        }
+    }
+
+    public void close() throws IOException {
         try {
-            return new ConnectionMsg(clientToDestBuffer);
+            closeDestSide();
+        } finally {
+            closeClientSide();
+        }
+    }
+
+    private void releaseResourcesIfClosed() {
+        if (clientSocketChannel.isOpen() || (destSocketChannel != null && destSocketChannel.isOpen())) {
+            return;
+        }
+        clientToDestBuffer.release();
+        destToClientBuffer.release();
 
-        } catch (BufferUnderflowException bue) {
-            clientToDestBuffer.reset();
-            return null;
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
         }
+        cancelReadPauses();
     }
 
-    public void closeClientSide() throws IOException {
-        clientSelectionKey.cancel();
-        clientSocketChannel.close();
-        setSocksClientState(SocksClientState.CLOSED);
+    private void cancelReadPauses() {
+        if (clientReadPause != null) {
+            clientReadPause.cancel();
+            clientReadPause = null;
+        }
+        if (destReadPause != null) {
+            destReadPause.cancel();
+            destReadPause = null;
+        }
     }
 
-    public void closeDestSide() throws IOException {
-        destSelectionKey.cancel();
-        destSocketChannel.close();
-        setSocksClientState(SocksClientState.CLOSED);
+    public boolean hasClientToDestData() {
+        return clientToDestBuffer.hasData();
+    }
+
+    public boolean hasDestToClientData() {
+        return destToClientBuffer.hasData();
     }
 
     public boolean isCloseUponSending() {
@@ -86,11 +174,19 @@ public class SocksClient {
         this.destAddress = destAddress;
     }
 
-    public ByteBuffer getClientToDestBuffer() {
+    public ByteBuffer getClientToDestBuffer() throws IOException {
+        return clientToDestBuffer.get();
+    }
+
+    public ByteBuffer getDestToClientBuffer() throws IOException {
+        return destToClientBuffer.get();
+    }
+
+    public RelayBuffer getClientToDestRelay() {
         return clientToDestBuffer;
     }
 
-    public ByteBuffer getDestToClientBuffer() {
+    public RelayBuffer getDestToClientRelay() {
         return destToClientBuffer;
     }
 
@@ -108,6 +204,72 @@ public class SocksClient {
 
     public void setDestSelectionKey(SelectionKey destSelectionKey) {
         this.destSelectionKey = destSelectionKey;
+        destAppliedInterest = destSelectionKey.interestOps();
+        destInterest = 0;
+        if (destAppliedInterest != 0) {
+            markInterestChanged();
+        }
+    }
+
+    public int getClientInterest() {
+        return clientInterest;
+    }
+
+    public int getDestInterest() {
+        return destInterest;
+    }
+
+    public void setClientInterest(int ops) {
+        if (clientInterest != ops) {
+            clientInterest = ops;
+            markInterestChanged();
+        }
+    }
+
+    public void addClientInterest(int ops) {
+        setClientInterest(clientInterest | ops);
+    }
+
+    public void removeClientInterest(int ops) {
+        setClientInterest(clientInterest & ~ops);
+    }
+
+    public void setDestInterest(int ops) {
+        if (destInterest != ops) {
+            destInterest = ops;
+            markInterestChanged();
+        }
+    }
+
+    public void addDestInterest(int ops) {
+        setDestInterest(destInterest | ops);
+    }
+
+    public void removeDestInterest(int ops) {
+        setDestInterest(destInterest & ~ops);
+    }
+
+    private void markInterestChanged() {
+        if (!interestChanged) {
+            interestChanged = true;
+            listener.onInterestChanged(this);
+        }
+    }
+
+    public int flushInterest() {
+        interestChanged = false;
+        int updates = 0;
+        if (clientInterest != clientAppliedInterest && clientSelectionKey.isValid()) {
+            clientSelectionKey.interestOps(clientInterest);
+            clientAppliedInterest = clientInterest;
+            ++updates;
+        }
+        if (destSelectionKey != null && destInterest != destAppliedInterest && destSelectionKey.isValid()) {
+            destSelectionKey.interestOps(destInterest);
+            destAppliedInterest = destInterest;
+            ++updates;
+        }
+        return updates;
     }
 
     public SocksClientState getSocksClientState() {
@@ -115,6 +277,158 @@ public class SocksClient {
     }
 
     public void setSocksClientState(SocksClientState socksClientState) {
+        SocksClientState previousState = this.socksClientState;
         this.socksClientState = socksClientState;
+
+        if (previousState != socksClientState) {
+            listener.onStateChanged(this, previousState, socksClientState);
+        }
+    }
+
+    public void setBindSelectionKey(SelectionKey bindSelectionKey) {
+        this.bindSelectionKey = bindSelectionKey;
+    }
+
+    public ConnectAttempts getConnectAttempts() {
+        return connectAttempts;
+    }
+
+    public void setConnectAttempts(ConnectAttempts connectAttempts) {
+        this.connectAttempts = connectAttempts;
+    }
+
+    public UdpAssociation getUdpAssociation() {
+        return udpAssociation;
+    }
+
+    public void setUdpAssociation(UdpAssociation udpAssociation) {
+        this.udpAssociation = udpAssociation;
+    }
+
+    public Timeout getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    public void touch(long now) {
+        lastActivity = now;
+    }
+
+    public InetSocketAddress getClientAddress() {
+        return clientAddress;
+    }
+
+    public void setClientAddress(InetSocketAddress clientAddress) {
+        this.clientAddress = clientAddress;
+    }
+
+    public String getDestDomain() {
+        return destDomain;
+    }
+
+    public void setDestDomain(String destDomain) {
+        this.destDomain = destDomain;
+    }
+
+    public long getAcceptedAt() {
+        return acceptedAt;
+    }
+
+    public long getRepliedAt() {
+        return repliedAt;
+    }
+
+    public RequestCode getRequestCode() {
+        return requestCode;
+    }
+
+    public void setRequestCode(RequestCode requestCode) {
+        this.requestCode = requestCode;
+    }
+
+    public ResponseCode getResponseCode() {
+        return responseCode;
+    }
+
+    public void setResponseCode(ResponseCode responseCode) {
+        this.responseCode = responseCode;
+        this.repliedAt = System.nanoTime();
+    }
+
+    public long getClientToDestBytes() {
+        return clientToDestBytes;
+    }
+
+    public void addClientToDestBytes(long bytesCount) {
+        clientToDestBytes += bytesCount;
+    }
+
+    public long getDestToClientBytes() {
+        return destToClientBytes;
+    }
+
+    public void addDestToClientBytes(long bytesCount) {
+        destToClientBytes += bytesCount;
+    }
+
+    public TokenBucket getClientBucket() {
+        return clientBucket;
+    }
+
+    public void setClientBucket(TokenBucket clientBucket) {
+        this.clientBucket = clientBucket;
+    }
+
+    public TokenBucket getDestBucket() {
+        return destBucket;
+    }
+
+    public void setDestBucket(TokenBucket destBucket) {
+        this.destBucket = destBucket;
+    }
+
+    public boolean isClientReadPaused() {
+        return clientReadPause != null;
+    }
+
+    public void setClientReadPause(Timeout clientReadPause) {
+        if (this.clientReadPause != null) {
+            this.clientReadPause.cancel();
+        }
+        this.clientReadPause = clientReadPause;
+    }
+
+    public boolean isDestReadPaused() {
+        return destReadPause != null;
+    }
+
+    public void setDestReadPause(Timeout destReadPause) {
+        if (this.destReadPause != null) {
+            this.destReadPause.cancel();
+        }
+        this.destReadPause = destReadPause;
+    }
+
+    public String getBreakerKey() {
+        return breakerKey;
+    }
+
+    public void setBreakerKey(String breakerKey) {
+        this.breakerKey = breakerKey;
+    }
+
+    public long getPhaseStart() {
+        return phaseStart;
+    }
+
+    public void setPhaseStart(long phaseStart) {
+        this.phaseStart = phaseStart;
     }
 }
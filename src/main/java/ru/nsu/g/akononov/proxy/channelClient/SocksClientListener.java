@@ -0,0 +1,7 @@
+package ru.nsu.g.akononov.proxy.channelClient;
+
+public interface SocksClientListener {
+    void onStateChanged(SocksClient socksClient, SocksClientState from, SocksClientState to);
+
+    void onInterestChanged(SocksClient socksClient);
+}
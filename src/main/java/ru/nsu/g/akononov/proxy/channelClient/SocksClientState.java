@@ -1,11 +1,24 @@
 package ru.nsu.g.akononov.proxy.channelClient;
 
 public enum SocksClientState {
-    RECV_INIT_GREETING,
-    SEND_GREETING_RESP,
-    RECV_CONN_REQ,
-    CONNECTING_TO_DEST,
-    SEND_CONN_RESP,
-    ACTIVE,
-    CLOSED
-}
\ No newline at end of file
+    RECV_INIT_GREETING  (TimeoutPhase.GREETING),
+    SEND_GREETING_RESP  (TimeoutPhase.GREETING),
+    RECV_CONN_REQ       (TimeoutPhase.REQUEST),
+    RESOLVING_DEST      (TimeoutPhase.CONNECT),
+    CONNECTING_TO_DEST  (TimeoutPhase.CONNECT),
+    AWAITING_BIND_CONN  (TimeoutPhase.BIND),
+    SEND_CONN_RESP      (TimeoutPhase.CONNECT),
+    ACTIVE              (TimeoutPhase.IDLE),
+    UDP_ASSOCIATED      (TimeoutPhase.IDLE),
+    CLOSED              (TimeoutPhase.IDLE);
+
+    private final TimeoutPhase timeoutPhase;
+
+    SocksClientState(TimeoutPhase timeoutPhase) {
+        this.timeoutPhase = timeoutPhase;
+    }
+
+    public TimeoutPhase getTimeoutPhase() {
+        return timeoutPhase;
+    }
+}
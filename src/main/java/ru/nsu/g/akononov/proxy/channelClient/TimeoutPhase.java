@@ -0,0 +1,9 @@
+package ru.nsu.g.akononov.proxy.channelClient;
+
+public enum TimeoutPhase {
+    GREETING,
+    REQUEST,
+    CONNECT,
+    BIND,
+    IDLE
+}
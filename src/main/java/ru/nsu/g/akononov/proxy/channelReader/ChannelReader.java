@@ -2,8 +2,14 @@ package ru.nsu.g.akononov.proxy.channelReader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xbill.DNS.TextParseException;
+import ru.nsu.g.akononov.proxy.channelClient.RelayBuffer;
 import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
 import ru.nsu.g.akononov.proxy.channelClient.SocksClientState;
+import ru.nsu.g.akononov.proxy.circuitBreaker.CircuitBreakers;
+import ru.nsu.g.akononov.proxy.dnsResolver.DnsResolveListener;
+import ru.nsu.g.akononov.proxy.destConnector.ConnectListener;
+import ru.nsu.g.akononov.proxy.destConnector.DestConnector;
 import ru.nsu.g.akononov.proxy.dnsResolver.DnsResolver;
 import ru.nsu.g.akononov.proxy.messages.connectionMessages.AddressType;
 import ru.nsu.g.akononov.proxy.messages.connectionMessages.ConnectionMsg;
@@ -11,112 +17,231 @@ import ru.nsu.g.akononov.proxy.messages.connectionMessages.RequestCode;
 import ru.nsu.g.akononov.proxy.messages.connectionMessages.ResponseCode;
 import ru.nsu.g.akononov.proxy.messages.greetingMessage.AuthMethod;
 import ru.nsu.g.akononov.proxy.messages.greetingMessage.GreetingMessage;
+import ru.nsu.g.akononov.proxy.metrics.ProxyMetrics;
 import ru.nsu.g.akononov.proxy.channelAttacments.ChannelAttachment;
 import ru.nsu.g.akononov.proxy.channelAttacments.ChannelRole;
+import ru.nsu.g.akononov.proxy.rateLimiter.RateLimiter;
+import ru.nsu.g.akononov.proxy.server.RelayMode;
+import ru.nsu.g.akononov.proxy.timer.Timeout;
+import ru.nsu.g.akononov.proxy.timer.TimingWheel;
+import ru.nsu.g.akononov.proxy.udpRelay.UdpRelay;
+import ru.nsu.g.akononov.proxy.upstreamPool.UpstreamPool;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
 
 import static java.nio.channels.SelectionKey.*;
 import static ru.nsu.g.akononov.proxy.channelClient.SocksClientState.*;
 
-public class ChannelReader {
+public class ChannelReader implements DnsResolveListener, ConnectListener {
     private static final Logger logger = LoggerFactory.getLogger(ChannelReader.class.getSimpleName());
 
     private final byte SOCKS_VERSION;
-    private final int proxyPort;
     private final DnsResolver dnsResolver;
-
-    public ChannelReader(byte socks_version, int proxyPort, DnsResolver dnsResolver) {
+    private final DestConnector destConnector;
+    private final RelayMode relayMode;
+    private final TimingWheel timingWheel;
+    private final UdpRelay udpRelay;
+    private final UpstreamPool upstreamPool;
+    private final ProxyMetrics metrics;
+    private final RateLimiter rateLimiter;
+    private final CircuitBreakers circuitBreakers;
+    private final int readBudget;
+
+    private final GreetingMessage greeting = new GreetingMessage();
+    private final ConnectionMsg request = new ConnectionMsg();
+
+    public ChannelReader(byte socks_version, DnsResolver dnsResolver, DestConnector destConnector,
+                         RelayMode relayMode, TimingWheel timingWheel, UdpRelay udpRelay, UpstreamPool upstreamPool,
+                         ProxyMetrics metrics, RateLimiter rateLimiter, CircuitBreakers circuitBreakers,
+                         int readBudget) {
         SOCKS_VERSION = socks_version;
-        this.proxyPort = proxyPort;
         this.dnsResolver = dnsResolver;
+        this.destConnector = destConnector;
+        this.relayMode = relayMode;
+        this.timingWheel = timingWheel;
+        this.udpRelay = udpRelay;
+        this.upstreamPool = upstreamPool;
+        this.metrics = metrics;
+        this.rateLimiter = rateLimiter;
+        this.circuitBreakers = circuitBreakers;
+        this.readBudget = readBudget;
     }
 
-    public void read(SelectionKey selectionKey) throws IOException {
-        SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+    public boolean read(SelectionKey selectionKey) throws IOException {
         ChannelAttachment socketChannelAtt = (ChannelAttachment) selectionKey.attachment();
+        if (socketChannelAtt.isDNS()) {
+            dnsResolver.readDNSMessage(selectionKey);
+            return false;
+        }
+        if (socketChannelAtt.isUdp()) {
+            udpRelay.read(selectionKey);
+            return false;
+        }
+        if (socketChannelAtt.isPooled()) {
+            upstreamPool.read(selectionKey);
+            return false;
+        }
+
+        SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
         SocksClient socksClient = socketChannelAtt.getSocksClient();
 
+        long bytesCount = 0;
         if (socketChannelAtt.isClient()) {
-            readFromClient(socketChannel, socksClient, selectionKey);
+            bytesCount = readFromClient(socketChannel, socksClient);
         } else if (socketChannelAtt.isDestination()) {
-            readFromDestination(socketChannel, socksClient, selectionKey);
-        } else if(socketChannelAtt.isDNS()){
-            dnsResolver.readDNSMessage(selectionKey);
+            bytesCount = readFromDestination(socketChannel, socksClient);
         }
+        return bytesCount == readBudget && socksClient.getSocksClientState() == ACTIVE;
     }
 
-    private void readFromDestination(SocketChannel socketChannel, SocksClient socksClient, SelectionKey selectionKey) throws IOException {
+    private long readFromDestination(SocketChannel socketChannel, SocksClient socksClient) throws IOException {
         if (socksClient.getSocksClientState() == SocksClientState.CLOSED) {
             socksClient.closeDestSide();
-            return;
+            return 0;
         }
 
-
-        ////TO-DO Добавить корректное закрытие channel
-        try {
-            long bytesCount = socketChannel.read(socksClient.getDestToClientBuffer());
-            if (bytesCount == -1) {
-                socksClient.closeDestSide();
-                socksClient.getClientSelectionKey().interestOps(socksClient.getClientSelectionKey().interestOps() & ~OP_READ);
-                return;
-            }
-            if (socksClient.getDestToClientBuffer().remaining() == 0) {
-                selectionKey.interestOps(selectionKey.interestOps() & ~OP_READ);
+        long bytesCount = socksClient.getDestToClientRelay().readFrom(socketChannel, readBudget);
+        if (bytesCount == -1) {
+            socksClient.closeDestSide();
+            if (socksClient.hasDestToClientData()) {
+                socksClient.removeClientInterest(OP_READ);
+            } else {
+                socksClient.closeClientSide();
             }
-            if (bytesCount > 0) {
-                socksClient.getClientSelectionKey().interestOps(
-                        socksClient.getClientSelectionKey().interestOps() | OP_WRITE);
+            return bytesCount;
+        }
+        if (bytesCount > 0) {
+            socksClient.touch(timingWheel.now());
+            socksClient.addDestToClientBytes(bytesCount);
+            metrics.onDestToClient(bytesCount);
+            if (socksClient.getPhaseStart() != 0 && socksClient.getSocksClientState() == ACTIVE) {
+                metrics.onFirstByte(socksClient);
             }
-        } catch (IOException ignored) {
         }
+        forward(socksClient, socksClient.getDestToClientRelay(), false);
+        if (bytesCount > 0 && rateLimiter.isEnabled() && socksClient.getSocksClientState() == ACTIVE) {
+            limitRate(socksClient, socksClient.getDestToClientRelay(), bytesCount, false);
+        }
+        return bytesCount;
     }
 
-    private void readFromClient(SocketChannel socketChannel, SocksClient socksClient, SelectionKey selectionKey) throws IOException {
+    private long readFromClient(SocketChannel socketChannel, SocksClient socksClient) throws IOException {
         if (socksClient.getSocksClientState() == SocksClientState.CLOSED) {
             socksClient.closeClientSide();
-            return;
+            return 0;
         }
-        try {
-            long bytesCount = socketChannel.read(socksClient.getClientToDestBuffer());
-            if (bytesCount == -1) {
-                socksClient.closeClientSide();
-                if (socksClient.getDestSelectionKey() != null) {
-                    socksClient.getDestSelectionKey().interestOps(socksClient.getDestSelectionKey().interestOps() & ~OP_READ);
-                }
-                return;
+
+        long bytesCount = socksClient.getClientToDestRelay().readFrom(socketChannel, readBudget);
+        if (bytesCount == -1) {
+            boolean isFlushing = socksClient.getSocksClientState() == ACTIVE && socksClient.hasClientToDestData();
+            socksClient.closeClientSide();
+            if (isFlushing) {
+                socksClient.removeDestInterest(OP_READ);
+            } else {
+                socksClient.closeDestSide();
             }
-            processReadState(bytesCount > 0, socketChannel, socksClient, selectionKey);
+            return bytesCount;
+        }
+        if (bytesCount > 0 && socksClient.getSocksClientState() == ACTIVE) {
+            socksClient.addClientToDestBytes(bytesCount);
+            metrics.onClientToDest(bytesCount);
+        }
+        processReadState(socketChannel, socksClient);
+        if (bytesCount > 0 && rateLimiter.isEnabled() && socksClient.getSocksClientState() == ACTIVE) {
+            limitRate(socksClient, socksClient.getClientToDestRelay(), bytesCount, true);
+        }
+        return bytesCount;
+    }
+
+    private void limitRate(SocksClient socksClient, RelayBuffer relayBuffer, long bytesCount, boolean fromClient) {
+        long delay = rateLimiter.charge(socksClient, bytesCount);
+        if (delay <= 0) {
+            return;
+        }
+
+        metrics.onReadPaused();
+        Timeout pause = timingWheel.schedule(TimeUnit.NANOSECONDS.toMillis(delay) + 1,
+                timeout -> resumeReads(socksClient, relayBuffer, fromClient));
+        if (fromClient) {
+            socksClient.removeClientInterest(OP_READ);
+            socksClient.setClientReadPause(pause);
+        } else {
+            socksClient.removeDestInterest(OP_READ);
+            socksClient.setDestReadPause(pause);
+        }
+    }
 
-        } catch (IOException ignored) {
+    private void resumeReads(SocksClient socksClient, RelayBuffer relayBuffer, boolean fromClient) {
+        if (fromClient) {
+            socksClient.setClientReadPause(null);
+        } else {
+            socksClient.setDestReadPause(null);
+        }
+        if (socksClient.getSocksClientState() != ACTIVE || relayBuffer.isFull()) {
+            return;
+        }
+        if (fromClient) {
+            socksClient.addClientInterest(OP_READ);
+        } else {
+            socksClient.addDestInterest(OP_READ);
         }
     }
 
-    private void processReadState(boolean isSmtRead, SocketChannel socketChannel, SocksClient socksClient, SelectionKey selectionKey) throws IOException {
+    private void processReadState(SocketChannel socketChannel, SocksClient socksClient) throws IOException {
         SocksClientState state = socksClient.getSocksClientState();
         if (state == RECV_INIT_GREETING) {
             greet(socketChannel, socksClient);
         } else if (state == RECV_CONN_REQ) {
-            processConnectionRequest(socketChannel, socksClient, selectionKey);
+            processConnectionRequest(socketChannel, socksClient);
         } else if (state == ACTIVE) {
-            if (socksClient.getClientToDestBuffer().remaining() == 0) {
-                selectionKey.interestOps(selectionKey.interestOps() & ~OP_READ);
+            socksClient.touch(timingWheel.now());
+            forward(socksClient, socksClient.getClientToDestRelay(), true);
+        } else if (state == AWAITING_BIND_CONN) {
+            if (socksClient.getClientToDestRelay().isFull()) {
+                socksClient.removeClientInterest(OP_READ);
             }
-            if (isSmtRead) {
-                socksClient.getDestSelectionKey().interestOps(
-                        socksClient.getDestSelectionKey().interestOps() | OP_WRITE);
+        } else if (state == UDP_ASSOCIATED) {
+            socksClient.getClientToDestBuffer().clear();
+        }
+    }
+
+    private void forward(SocksClient socksClient, RelayBuffer relayBuffer, boolean fromClient) throws IOException {
+        SelectionKey targetKey = fromClient ? socksClient.getDestSelectionKey() : socksClient.getClientSelectionKey();
+        if (relayMode == RelayMode.DIRECT && relayBuffer.hasData()) {
+            relayBuffer.writeTo((SocketChannel) targetKey.channel());
+        }
+
+        if (fromClient) {
+            if (relayBuffer.hasData()) {
+                socksClient.addDestInterest(OP_WRITE);
+            }
+            if (relayBuffer.isFull()) {
+                socksClient.removeClientInterest(OP_READ);
+            }
+        } else {
+            if (relayBuffer.hasData()) {
+                socksClient.addClientInterest(OP_WRITE);
+            }
+            if (relayBuffer.isFull()) {
+                socksClient.removeDestInterest(OP_READ);
             }
         }
     }
 
     private void greet(SocketChannel socketChannel, SocksClient socksClient) throws IOException {
         try {
-            GreetingMessage greeting = socksClient.getClientGreeting();
+            ByteBuffer buffer = socksClient.getClientToDestBuffer();
+            if (!greeting.read(buffer)) {
+                return;
+            }
+            greeting.consume(buffer);
 
             if (greeting.getSocksVersion() != SOCKS_VERSION) {
                 logger.warn("Unsupported socks version from {}", socketChannel.getRemoteAddress());
@@ -124,95 +249,251 @@ public class ChannelReader {
                 return;
             }
 
-            GreetingMessage response;
-            if (greeting.hasAuthMethod(AuthMethod.NO_AUTHENTICATION)) {
-                response = new GreetingMessage(SOCKS_VERSION, AuthMethod.NO_AUTHENTICATION);
-            } else {
-                response = new GreetingMessage(SOCKS_VERSION, AuthMethod.NO_ACCEPTABLE_METHOD);
+            AuthMethod authMethod = AuthMethod.NO_AUTHENTICATION;
+            if (!greeting.hasAuthMethod(AuthMethod.NO_AUTHENTICATION)) {
+                authMethod = AuthMethod.NO_ACCEPTABLE_METHOD;
                 socksClient.setCloseUponSending(true);
             }
 
-            socksClient.getDestToClientBuffer().put(response.toByteResponse());
-            socksClient.getClientSelectionKey().interestOps(OP_WRITE);
+            GreetingMessage.putResponse(socksClient.getDestToClientBuffer(), SOCKS_VERSION, authMethod);
+            socksClient.setClientInterest(OP_WRITE);
             socksClient.setSocksClientState(SocksClientState.SEND_GREETING_RESP);
 
+            if (!socksClient.isCloseUponSending() && buffer.position() > 0) {
+                processConnectionRequest(socketChannel, socksClient);
+            }
+
         } catch (IllegalArgumentException iae) {
             socksClient.closeClientSide();
         }
     }
 
-    private void processConnectionRequest(SocketChannel socketChannel, SocksClient socksClient, SelectionKey selectionKey) throws IOException {
+    private void processConnectionRequest(SocketChannel socketChannel, SocksClient socksClient) throws IOException {
         try {
-            ConnectionMsg request = socksClient.getClientConnectionRequest();
+            if (!request.read(socksClient.getClientToDestBuffer())) {
+                return;
+            }
+
+            socksClient.setRequestCode(request.getRequestCommand());
             if (request.getSocksVersion() != SOCKS_VERSION) {
-                System.out.println("Unsupported version of socks protocol from client " + socketChannel.getRemoteAddress());
+                logger.debug("Unsupported socks version in request from {}", socketChannel.getRemoteAddress());
                 socksClient.closeClientSide();
                 return;
             }
 
             if (request.getRequestCommand() == RequestCode.ESTABLISH_STREAM_CONNECTION) {
-                createConnection(request, socksClient, selectionKey);
+                createConnection(request, socksClient);
+            } else if (request.getRequestCommand() == RequestCode.ESTABLISH_PORT_BINDING) {
+                bind(request, socksClient);
+            } else if (request.getRequestCommand() == RequestCode.ASSOCIATE_UDP_PORT) {
+                associate(request, socksClient);
             } else {
                 logger.warn("Cannot process unsupported cmd from {}", socketChannel.getRemoteAddress());
+                sendResponse(socksClient, ResponseCode.CMD_NOT_SUPPORTED);
+            }
 
-                sendResponse(socksClient,
-                        new ConnectionMsg(SOCKS_VERSION, AddressType.IPV4_ADDRESS, InetAddress.getLocalHost(), proxyPort),
-                        ResponseCode.CMD_NOT_SUPPORTED);
+            if (socksClient.getSocksClientState() != SocksClientState.CLOSED) {
+                request.consume();
+                countPipelinedBytes(socksClient);
             }
         } catch (IllegalArgumentException iae) {
             socksClient.closeClientSide();
         }
     }
 
-    private void createConnection(ConnectionMsg request, SocksClient socksClient, SelectionKey selectionKey) throws IOException {
-        InetAddress address;
+    private void countPipelinedBytes(SocksClient socksClient) throws IOException {
+        long bytesCount = socksClient.getClientToDestBuffer().position();
+        if (bytesCount > 0 && !socksClient.isCloseUponSending()) {
+            socksClient.addClientToDestBytes(bytesCount);
+            metrics.onClientToDest(bytesCount);
+        }
+    }
+
+    private void createConnection(ConnectionMsg request, SocksClient socksClient) throws IOException {
+        if (upstreamPool.isEnabled() && takePooled(request, socksClient)) {
+            onConnected(socksClient);
+            return;
+        }
+        if (circuitBreakers.isEnabled() && isCircuitOpen(request, socksClient)) {
+            return;
+        }
 
         if (request.getAddressType() == AddressType.DOMAIN_NAME) {
-            address = dnsResolver.resolve(request.getDomain());
-            if(address == null){
-                dnsResolver.makeDNSRequest(request.getDomain(),
-                        selectionKey);
-                return;
+            String domain = request.getDomain();
+            socksClient.setDestDomain(domain);
+            socksClient.setClientInterest(0);
+            socksClient.setSocksClientState(SocksClientState.RESOLVING_DEST);
+
+            try {
+                dnsResolver.resolve(domain, request.getPort(), socksClient);
+            } catch (TextParseException e) {
+                logger.warn("Bad domain name {}", domain);
+                sendResponse(socksClient, ResponseCode.HOST_UNREACHABLE);
             }
+            return;
+        }
+
+        destConnector.connect(socksClient, new InetAddress[]{request.getAddress()}, request.getPort());
+    }
+
+    private boolean isCircuitOpen(ConnectionMsg request, SocksClient socksClient) {
+        String host;
+        if (request.getAddressType() == AddressType.DOMAIN_NAME) {
+            host = request.getDomain();
+            socksClient.setDestDomain(host);
         } else {
-            address = request.getAddress();
+            host = request.getAddress().getHostAddress();
+            socksClient.setDestAddress(new InetSocketAddress(request.getAddress(), request.getPort()));
         }
 
-        InetSocketAddress inetSocketAddress = new InetSocketAddress(address, request.getPort());
-        connect(socksClient, inetSocketAddress);
+        ResponseCode responseCode = circuitBreakers.check(socksClient, host, request.getPort());
+        if (responseCode == null) {
+            return false;
+        }
+        sendResponse(socksClient, responseCode);
+        return true;
     }
 
-    private void sendHostUnreachable(SocksClient socksClient) throws UnknownHostException {
-        sendResponse(socksClient,
-                new ConnectionMsg(SOCKS_VERSION, AddressType.IPV4_ADDRESS, InetAddress.getLocalHost(), proxyPort),
-                ResponseCode.HOST_UNREACHABLE);
-        return;
+    private boolean takePooled(ConnectionMsg request, SocksClient socksClient) {
+        String host;
+        if (request.getAddressType() == AddressType.DOMAIN_NAME) {
+            host = request.getDomain();
+            socksClient.setDestDomain(host);
+        } else {
+            host = request.getAddress().getHostAddress();
+        }
+        return upstreamPool.take(socksClient, host, request.getPort());
     }
 
-    public static void connect(SocksClient socksClient, InetSocketAddress inetSocketAddress) throws IOException {
-        socksClient.getClientSelectionKey().interestOps(0);
-        socksClient.setSocksClientState(SocksClientState.CONNECTING_TO_DEST);
+    private void bind(ConnectionMsg request, SocksClient socksClient) throws IOException {
+        SocketChannel clientChannel = (SocketChannel) socksClient.getClientSelectionKey().channel();
+        InetAddress localAddress = ((InetSocketAddress) clientChannel.getLocalAddress()).getAddress();
+
+        ServerSocketChannel bindChannel = ServerSocketChannel.open();
+        try {
+            bindChannel.configureBlocking(false);
+            bindChannel.bind(new InetSocketAddress(localAddress, 0), 1);
+            SelectionKey bindSelectionKey = bindChannel.register(socksClient.getClientSelectionKey().selector(), OP_ACCEPT,
+                    new ChannelAttachment(socksClient, ChannelRole.BIND));
+            socksClient.setBindSelectionKey(bindSelectionKey);
+        } catch (IOException e) {
+            bindChannel.close();
+            throw e;
+        }
+
+        if (request.getAddressType() != AddressType.DOMAIN_NAME) {
+            socksClient.setDestAddress(new InetSocketAddress(request.getAddress(), request.getPort()));
+        }
 
-        socksClient.setDestAddress(inetSocketAddress);
+        InetSocketAddress boundAddress = (InetSocketAddress) bindChannel.getLocalAddress();
+        ConnectionMsg.putResponse(socksClient.getDestToClientBuffer(), SOCKS_VERSION, ResponseCode.REQUEST_GRANTED,
+                localAddress.getAddress(), boundAddress.getPort());
+        socksClient.setClientInterest(OP_WRITE);
+        socksClient.setSocksClientState(SocksClientState.AWAITING_BIND_CONN);
 
-        SocketChannel destSocketChannel = SocketChannel.open();
-        destSocketChannel.configureBlocking(false);
-        destSocketChannel.connect(inetSocketAddress);
+        logger.debug("Waiting inbound connection on port {}", boundAddress.getPort());
+    }
+
+    public void acceptBound(SelectionKey selectionKey) throws IOException {
+        SocksClient socksClient = ((ChannelAttachment) selectionKey.attachment()).getSocksClient();
+        SocketChannel destSocketChannel = ((ServerSocketChannel) selectionKey.channel()).accept();
+        if (destSocketChannel == null) {
+            return;
+        }
+
+        InetSocketAddress peerAddress = (InetSocketAddress) destSocketChannel.getRemoteAddress();
+        InetSocketAddress expectedAddress = socksClient.getDestAddress();
+        if (expectedAddress != null && !expectedAddress.getAddress().isAnyLocalAddress()
+                && !expectedAddress.getAddress().equals(peerAddress.getAddress())) {
+            logger.warn("Rejected inbound connection from {}", peerAddress);
+            destSocketChannel.close();
+            return;
+        }
+        socksClient.closeBindChannel();
 
-        SelectionKey destSelectionKey = destSocketChannel.register(socksClient.getClientSelectionKey().selector(), OP_CONNECT);
+        destSocketChannel.configureBlocking(false);
+        SelectionKey destSelectionKey = destSocketChannel.register(selectionKey.selector(), 0);
         destSelectionKey.attach(new ChannelAttachment(socksClient, ChannelRole.DESTINATION));
 
         socksClient.setDestSelectionKey(destSelectionKey);
         socksClient.setDestSocketChannel(destSocketChannel);
+        socksClient.setDestAddress(peerAddress);
+
+        sendResponse(socksClient, ResponseCode.REQUEST_GRANTED, peerAddress.getAddress().getAddress(), peerAddress.getPort());
+    }
+
+    private void associate(ConnectionMsg request, SocksClient socksClient) throws IOException {
+        InetSocketAddress boundAddress = udpRelay.associate(socksClient, request.getPort());
+        sendResponse(socksClient, ResponseCode.REQUEST_GRANTED, boundAddress.getAddress().getAddress(), boundAddress.getPort());
+    }
+
+    @Override
+    public void onResolved(SocksClient socksClient, InetAddress[] addresses, int port) {
+        if (socksClient.getSocksClientState() != SocksClientState.RESOLVING_DEST) {
+            return;
+        }
+        destConnector.connect(socksClient, addresses, port);
+    }
+
+    @Override
+    public void onResolveFailed(SocksClient socksClient) {
+        if (socksClient.getSocksClientState() != SocksClientState.RESOLVING_DEST) {
+            return;
+        }
+        sendResponse(socksClient, ResponseCode.HOST_UNREACHABLE);
+    }
 
-        logger.info("Create connection to {}", inetSocketAddress.getAddress());
+    @Override
+    public void onConnected(SocksClient socksClient) {
+        sendResponse(socksClient, ResponseCode.REQUEST_GRANTED);
     }
 
-    private void sendResponse(SocksClient socksClient, ConnectionMsg response, ResponseCode code) {
-        socksClient.setCloseUponSending(true);
-        socksClient.getClientSelectionKey().interestOps(OP_WRITE);
+    @Override
+    public void onConnectFailed(SocksClient socksClient, boolean refused) {
+        if (socksClient.getSocksClientState() == SocksClientState.CLOSED) {
+            return;
+        }
+        sendResponse(socksClient, refused ? ResponseCode.CONNECTION_REFUSED : ResponseCode.HOST_UNREACHABLE);
+    }
+
+    public void sendResponse(SocksClient socksClient, ResponseCode code) {
+        SelectionKey boundKey = code == ResponseCode.REQUEST_GRANTED
+                ? socksClient.getDestSelectionKey()
+                : socksClient.getClientSelectionKey();
+
+        InetSocketAddress boundAddress;
+        try {
+            boundAddress = (InetSocketAddress) ((SocketChannel) boundKey.channel()).getLocalAddress();
+        } catch (IOException e) {
+            logger.warn("Cannot send response: {}", e.getMessage());
+            close(socksClient);
+            return;
+        }
+        sendResponse(socksClient, code, boundAddress.getAddress().getAddress(), boundAddress.getPort());
+    }
+
+    private void sendResponse(SocksClient socksClient, ResponseCode code, byte[] address, int port) {
+        ByteBuffer buffer;
+        try {
+            buffer = socksClient.getDestToClientBuffer();
+        } catch (IOException e) {
+            logger.warn("Cannot send response: {}", e.getMessage());
+            close(socksClient);
+            return;
+        }
+
+        socksClient.setCloseUponSending(code != ResponseCode.REQUEST_GRANTED);
+        socksClient.setResponseCode(code);
+        socksClient.setClientInterest(OP_WRITE);
         socksClient.setSocksClientState(SocksClientState.SEND_CONN_RESP);
-        socksClient.getDestToClientBuffer().put(response.getResponseBytes(code));
+        ConnectionMsg.putResponse(buffer, SOCKS_VERSION, code, address, port);
     }
 
-}
\ No newline at end of file
+    private void close(SocksClient socksClient) {
+        try {
+            socksClient.close();
+        } catch (IOException e) {
+            logger.warn("Cannot close client: {}", e.getMessage());
+        }
+    }
+}
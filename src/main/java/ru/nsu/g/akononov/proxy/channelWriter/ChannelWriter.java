@@ -22,23 +22,25 @@ public class ChannelWriter {
 
 
     public void write(SelectionKey selectionKey) throws IOException {
+        ChannelAttachment channelAttachment = (ChannelAttachment) selectionKey.attachment();
+        if (channelAttachment.isDNS()) {
+            dnsResolver.sendDNSRequest(selectionKey);
+            return;
+        }
 
         SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
-        ChannelAttachment channelAttachment = (ChannelAttachment) selectionKey.attachment();
         SocksClient socksClient = channelAttachment.getSocksClient();
 
         if (channelAttachment.isClient()) {
-            writeToClient(socketChannel, socksClient, selectionKey);
+            writeToClient(socketChannel, socksClient);
         } else if (channelAttachment.isDestination()) {
-            writeToDestination(socksClient, socketChannel, selectionKey);
-        } else if(channelAttachment.isDNS()){
-            dnsResolver.sendDNSRequest(selectionKey);
+            writeToDestination(socksClient, socketChannel);
         }
     }
 
-    private void writeToClient(SocketChannel socketChannel, SocksClient socksClient, SelectionKey selectionKey) throws IOException {
-        socksClient.getDestToClientBuffer().flip();
-        long bytesCount = socketChannel.write(socksClient.getDestToClientBuffer());
+    private void writeToClient(SocketChannel socketChannel, SocksClient socksClient) throws IOException {
+        long bytesCount = socksClient.getDestToClientRelay().writeTo(socketChannel);
+        boolean isDrained = !socksClient.hasDestToClientData();
 
         SocksClientState state = socksClient.getSocksClientState();
         switch (state) {
@@ -48,13 +50,18 @@ public class ChannelWriter {
                     socksClient.closeClientSide();
                     break;
                 }
-                processClientResponseState(socksClient, state);
+                processClientResponseState(isDrained, socksClient, state);
+                break;
+            case AWAITING_BIND_CONN:
+                if (isDrained) {
+                    socksClient.setClientInterest(OP_READ);
+                }
                 break;
             case ACTIVE:
-                processClientActiveState(bytesCount > 0, socksClient, selectionKey);
+                processClientActiveState(isDrained, bytesCount > 0, socksClient);
                 break;
             case CLOSED: {
-                if (socksClient.getDestToClientBuffer().remaining() == 0) {
+                if (isDrained) {
                     socksClient.closeClientSide();
                 }
                 break;
@@ -62,54 +69,49 @@ public class ChannelWriter {
             default:
                 throw new IllegalArgumentException();
         }
-
-        socksClient.getDestToClientBuffer().compact();
     }
 
-    private void processClientResponseState(SocksClient socksClient, SocksClientState state) {
-        if (socksClient.getDestToClientBuffer().remaining() == 0) {
-            if (state == SocksClientState.SEND_CONN_RESP) {
+    private void processClientResponseState(boolean isDrained, SocksClient socksClient, SocksClientState state) {
+        if (isDrained) {
+            if (state == SocksClientState.SEND_CONN_RESP && socksClient.getUdpAssociation() != null) {
+                socksClient.setSocksClientState(SocksClientState.UDP_ASSOCIATED);
+            } else if (state == SocksClientState.SEND_CONN_RESP) {
                 socksClient.setSocksClientState(SocksClientState.ACTIVE);
-                socksClient.getDestSelectionKey().interestOps(OP_READ);
+                socksClient.setDestInterest(socksClient.hasClientToDestData() ? OP_READ | OP_WRITE : OP_READ);
             } else {
                 socksClient.setSocksClientState(SocksClientState.RECV_CONN_REQ);
             }
-            socksClient.getClientSelectionKey().interestOps(OP_READ);
+            socksClient.setClientInterest(OP_READ);
         }
     }
 
-    private void processClientActiveState(boolean isSmtWrote, SocksClient socksClient, SelectionKey selectionKey) throws IOException {
-        if (socksClient.getDestToClientBuffer().remaining() == 0) {
-            selectionKey.interestOps(selectionKey.interestOps() & ~OP_WRITE);
+    private void processClientActiveState(boolean isDrained, boolean isSmtWrote, SocksClient socksClient) throws IOException {
+        if (isDrained) {
+            socksClient.removeClientInterest(OP_WRITE);
 
             if (socksClient.getSocksClientState() == SocksClientState.CLOSED) {
                 socksClient.closeDestSide();
                 return;
             }
         }
-        if (isSmtWrote) {
-            socksClient.getDestSelectionKey().interestOps(
-                    socksClient.getDestSelectionKey().interestOps() | OP_READ);
+        if (isSmtWrote && !socksClient.isDestReadPaused()) {
+            socksClient.addDestInterest(OP_READ);
         }
     }
 
-    private void writeToDestination(SocksClient socksClient, SocketChannel socketChannel, SelectionKey selectionKey) throws IOException {
-        socksClient.getClientToDestBuffer().flip();
-        long bytesCount = socketChannel.write(socksClient.getClientToDestBuffer());
+    private void writeToDestination(SocksClient socksClient, SocketChannel socketChannel) throws IOException {
+        long bytesCount = socksClient.getClientToDestRelay().writeTo(socketChannel);
 
-        if (socksClient.getClientToDestBuffer().remaining() == 0) {
-            selectionKey.interestOps(selectionKey.interestOps() & ~OP_WRITE);
+        if (!socksClient.hasClientToDestData()) {
+            socksClient.removeDestInterest(OP_WRITE);
 
             if (socksClient.getSocksClientState() == SocksClientState.CLOSED) {
                 socksClient.closeDestSide();
                 return;
             }
         }
-        if (bytesCount > 0) {
-            socksClient.getClientSelectionKey().interestOps(
-                    socksClient.getClientSelectionKey().interestOps() | OP_READ);
+        if (bytesCount > 0 && !socksClient.isClientReadPaused()) {
+            socksClient.addClientInterest(OP_READ);
         }
-        socksClient.getClientToDestBuffer().compact();
     }
 }
-
@@ -0,0 +1,7 @@
+package ru.nsu.g.akononov.proxy.circuitBreaker;
+
+public enum BreakerState {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+}
@@ -0,0 +1,62 @@
+package ru.nsu.g.akononov.proxy.circuitBreaker;
+
+class CircuitBreaker {
+    private BreakerState state = BreakerState.CLOSED;
+    private int failures;
+    private long lastFailureAt;
+    private long backoff;
+    private long openUntil;
+    private boolean refused;
+
+    synchronized boolean tryAcquire(long now) {
+        if (state == BreakerState.CLOSED) {
+            return true;
+        }
+        if (state == BreakerState.OPEN && now >= openUntil) {
+            state = BreakerState.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized boolean onFailure(long now, boolean refused, int threshold, long initialBackoff, long maxBackoff) {
+        this.refused = refused;
+        if (state == BreakerState.HALF_OPEN) {
+            open(now, Math.min(backoff * 2, maxBackoff));
+            return true;
+        }
+        if (state == BreakerState.OPEN) {
+            return false;
+        }
+
+        if (now - lastFailureAt > maxBackoff) {
+            failures = 0;
+        }
+        lastFailureAt = now;
+        if (++failures < threshold) {
+            return false;
+        }
+        open(now, initialBackoff);
+        return true;
+    }
+
+    private void open(long now, long backoff) {
+        this.state = BreakerState.OPEN;
+        this.backoff = backoff;
+        this.openUntil = now + backoff;
+    }
+
+    synchronized void onAbandoned() {
+        if (state == BreakerState.HALF_OPEN) {
+            state = BreakerState.OPEN;
+        }
+    }
+
+    synchronized BreakerState getState() {
+        return state;
+    }
+
+    synchronized boolean isRefused() {
+        return refused;
+    }
+}
@@ -0,0 +1,109 @@
+package ru.nsu.g.akononov.proxy.circuitBreaker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClientState;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.ResponseCode;
+import ru.nsu.g.akononov.proxy.timer.TimingWheel;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CircuitBreakers {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreakers.class.getSimpleName());
+
+    private static final int MAX_TRACKED = 10000;
+
+    private final int threshold;
+    private final long initialBackoff;
+    private final long maxBackoff;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final LongAdder trips = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public CircuitBreakers(int threshold, long initialBackoff, long maxBackoff) {
+        this.threshold = threshold;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    public boolean isEnabled() {
+        return threshold > 0;
+    }
+
+    public ResponseCode check(SocksClient socksClient, String host, int port) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = host.toLowerCase(Locale.ROOT) + ':' + port;
+        CircuitBreaker breaker = breakers.get(key);
+        if (breaker == null || breaker.tryAcquire(TimingWheel.currentTime())) {
+            socksClient.setBreakerKey(key);
+            return null;
+        }
+        rejected.increment();
+        return breaker.isRefused() ? ResponseCode.CONNECTION_REFUSED : ResponseCode.HOST_UNREACHABLE;
+    }
+
+    public void onStateChanged(SocksClient socksClient, SocksClientState from, SocksClientState to) {
+        String key = socksClient.getBreakerKey();
+        if (key == null || to == SocksClientState.CONNECTING_TO_DEST
+                || (from != SocksClientState.RESOLVING_DEST && from != SocksClientState.CONNECTING_TO_DEST)) {
+            return;
+        }
+        socksClient.setBreakerKey(null);
+
+        if (from == SocksClientState.RESOLVING_DEST || to == SocksClientState.CLOSED) {
+            CircuitBreaker breaker = breakers.get(key);
+            if (breaker != null) {
+                breaker.onAbandoned();
+            }
+            return;
+        }
+
+        ResponseCode responseCode = socksClient.getResponseCode();
+        if (responseCode == ResponseCode.REQUEST_GRANTED) {
+            breakers.remove(key);
+            return;
+        }
+
+        CircuitBreaker breaker = breakers.get(key);
+        if (breaker == null) {
+            sweepIfFull();
+            breaker = breakers.computeIfAbsent(key, ignored -> new CircuitBreaker());
+        }
+        boolean refused = responseCode == ResponseCode.CONNECTION_REFUSED;
+        if (breaker.onFailure(TimingWheel.currentTime(), refused, threshold, initialBackoff, maxBackoff)) {
+            trips.increment();
+            logger.warn("Circuit to {} is open", key);
+        }
+    }
+
+    private void sweepIfFull() {
+        if (breakers.size() >= MAX_TRACKED) {
+            breakers.values().removeIf(breaker -> breaker.getState() == BreakerState.CLOSED);
+        }
+    }
+
+    public long getCount(BreakerState state) {
+        long count = 0;
+        for (CircuitBreaker breaker : breakers.values()) {
+            if (breaker.getState() == state) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    public long getTripsCount() {
+        return trips.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
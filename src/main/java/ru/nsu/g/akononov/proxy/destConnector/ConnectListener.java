@@ -0,0 +1,9 @@
+package ru.nsu.g.akononov.proxy.destConnector;
+
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+
+public interface ConnectListener {
+    void onConnected(SocksClient socksClient);
+
+    void onConnectFailed(SocksClient socksClient, boolean refused);
+}
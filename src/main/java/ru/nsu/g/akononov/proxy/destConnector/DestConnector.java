@@ -0,0 +1,133 @@
+package ru.nsu.g.akononov.proxy.destConnector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.nsu.g.akononov.proxy.channelAttacments.ChannelAttachment;
+import ru.nsu.g.akononov.proxy.channelAttacments.ChannelRole;
+import ru.nsu.g.akononov.proxy.channelClient.ConnectAttempts;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClientState;
+import ru.nsu.g.akononov.proxy.metrics.Histogram;
+import ru.nsu.g.akononov.proxy.timer.TimingWheel;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import static java.nio.channels.SelectionKey.OP_CONNECT;
+
+public class DestConnector {
+    private static final Logger logger = LoggerFactory.getLogger(DestConnector.class.getSimpleName());
+
+    private final Selector selector;
+    private final TimingWheel timingWheel;
+    private final long attemptDelay;
+    private final Histogram connectLatency;
+
+    private ConnectListener listener;
+
+    public DestConnector(Selector selector, TimingWheel timingWheel, long attemptDelay, Histogram connectLatency) {
+        this.selector = selector;
+        this.timingWheel = timingWheel;
+        this.attemptDelay = attemptDelay;
+        this.connectLatency = connectLatency;
+    }
+
+    public void setListener(ConnectListener listener) {
+        this.listener = listener;
+    }
+
+    public void connect(SocksClient socksClient, InetAddress[] addresses, int port) {
+        socksClient.setClientInterest(0);
+        socksClient.setSocksClientState(SocksClientState.CONNECTING_TO_DEST);
+        socksClient.setDestAddress(new InetSocketAddress(addresses[0], port));
+
+        ConnectAttempts attempts = new ConnectAttempts(addresses, port);
+        socksClient.setConnectAttempts(attempts);
+        startNextAttempt(socksClient, attempts);
+    }
+
+    private void startNextAttempt(SocksClient socksClient, ConnectAttempts attempts) {
+        while (attempts.hasNextAddress()) {
+            InetSocketAddress address = attempts.nextAddress();
+            SocketChannel destSocketChannel = null;
+            try {
+                destSocketChannel = SocketChannel.open();
+                destSocketChannel.configureBlocking(false);
+                destSocketChannel.connect(address);
+
+                SelectionKey destSelectionKey = destSocketChannel.register(selector, OP_CONNECT);
+                destSelectionKey.attach(new ChannelAttachment(socksClient, ChannelRole.DESTINATION));
+                attempts.addPending(destSelectionKey);
+
+                if (attempts.hasNextAddress()) {
+                    attempts.setAttemptDelay(timingWheel.schedule(attemptDelay, timeout -> startNextAttempt(socksClient, attempts)));
+                }
+
+                logger.debug("Create connection to {}", address.getAddress());
+                return;
+            } catch (IOException e) {
+                logger.warn("Cannot connect to {}: {}", address, e.getMessage());
+                attempts.onFailed(e);
+                closeQuietly(destSocketChannel);
+            }
+        }
+
+        if (!attempts.hasPending()) {
+            fail(socksClient, attempts);
+        }
+    }
+
+    public void finishConnect(SelectionKey selectionKey) throws IOException {
+        SocketChannel destSocketChannel = (SocketChannel) selectionKey.channel();
+        SocksClient socksClient = ((ChannelAttachment) selectionKey.attachment()).getSocksClient();
+        ConnectAttempts attempts = socksClient.getConnectAttempts();
+
+        try {
+            if (!destSocketChannel.finishConnect()) {
+                return;
+            }
+        } catch (IOException e) {
+            logger.warn("Connection attempt failed: {}", e.getMessage());
+            attempts.onFailed(e);
+            attempts.removePending(selectionKey);
+            selectionKey.cancel();
+            closeQuietly(destSocketChannel);
+
+            attempts.cancelAttemptDelay();
+            startNextAttempt(socksClient, attempts);
+            return;
+        }
+
+        connectLatency.recordNanos(attempts.getStartedAt());
+        attempts.removePending(selectionKey);
+        attempts.cancel();
+        socksClient.setConnectAttempts(null);
+
+        socksClient.setDestSelectionKey(selectionKey);
+        socksClient.setDestSocketChannel(destSocketChannel);
+        socksClient.setDestAddress((InetSocketAddress) destSocketChannel.getRemoteAddress());
+
+        logger.trace("Connected to {}", socksClient.getDestAddress());
+        listener.onConnected(socksClient);
+    }
+
+    private void fail(SocksClient socksClient, ConnectAttempts attempts) {
+        socksClient.setConnectAttempts(null);
+        listener.onConnectFailed(socksClient, attempts.isRefused());
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Cannot close channel: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package ru.nsu.g.akononov.proxy.dnsResolver;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class DnsCache {
+    private static final int MAX_SEGMENTS = 16;
+
+    private final int maxEntries;
+    private final long negativeTtl;
+    private final long staleTtl;
+
+    private final DnsCacheSegment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DnsCache(int maxEntries, long negativeTtl, long staleTtl) {
+        this.maxEntries = maxEntries;
+        this.negativeTtl = negativeTtl;
+        this.staleTtl = staleTtl;
+
+        int segmentsCount = 1;
+        while (segmentsCount < MAX_SEGMENTS && segmentsCount * 2 <= maxEntries) {
+            segmentsCount *= 2;
+        }
+        segments = new DnsCacheSegment[segmentsCount];
+        for (int i = 0; i < segmentsCount; ++i) {
+            segments[i] = new DnsCacheSegment(maxEntries / segmentsCount, evictions);
+        }
+    }
+
+    private DnsCacheSegment getSegment(String domain) {
+        int hash = domain.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    public DnsCacheEntry lookup(String domain, long now) {
+        DnsCacheEntry entry = getSegment(domain).get(domain, now);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (entry.isExpired(now)) {
+            staleHits.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    public boolean startRefresh(DnsCacheEntry entry) {
+        return entry.startRefresh();
+    }
+
+    public void cancelRefresh(String domain) {
+        DnsCacheEntry entry = getSegment(domain).peek(domain);
+        if (entry != null) {
+            entry.cancelRefresh();
+        }
+    }
+
+    public void putAddresses(String domain, InetAddress[] addresses, long ttlSeconds, long now) {
+        if (maxEntries == 0) {
+            return;
+        }
+        long expiresAt = now + TimeUnit.SECONDS.toMillis(ttlSeconds);
+        getSegment(domain).put(domain, new DnsCacheEntry(addresses, expiresAt, expiresAt + staleTtl));
+    }
+
+    public void putFailure(String domain, long now) {
+        if (maxEntries == 0) {
+            return;
+        }
+        long expiresAt = now + negativeTtl;
+        getSegment(domain).put(domain, new DnsCacheEntry(null, expiresAt, expiresAt));
+    }
+
+    public int size() {
+        int size = 0;
+        for (DnsCacheSegment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,41 @@
+package ru.nsu.g.akononov.proxy.dnsResolver;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class DnsCacheEntry {
+    private final InetAddress[] addresses;
+    private final long expiresAt;
+    private final long staleUntil;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    DnsCacheEntry(InetAddress[] addresses, long expiresAt, long staleUntil) {
+        this.addresses = addresses;
+        this.expiresAt = expiresAt;
+        this.staleUntil = staleUntil;
+    }
+
+    public InetAddress[] getAddresses() {
+        return addresses;
+    }
+
+    public boolean isNegative() {
+        return addresses == null;
+    }
+
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+
+    boolean isUsable(long now) {
+        return now < staleUntil;
+    }
+
+    boolean startRefresh() {
+        return refreshing.compareAndSet(false, true);
+    }
+
+    void cancelRefresh() {
+        refreshing.set(false);
+    }
+}
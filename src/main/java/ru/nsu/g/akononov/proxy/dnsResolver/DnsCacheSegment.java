@@ -0,0 +1,43 @@
+package ru.nsu.g.akononov.proxy.dnsResolver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+class DnsCacheSegment {
+    private final Map<String, DnsCacheEntry> entries;
+
+    DnsCacheSegment(int maxEntries, LongAdder evictions) {
+        entries = new LinkedHashMap<String, DnsCacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DnsCacheEntry> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    synchronized DnsCacheEntry get(String domain, long now) {
+        DnsCacheEntry entry = entries.get(domain);
+        if (entry != null && !entry.isUsable(now)) {
+            entries.remove(domain);
+            return null;
+        }
+        return entry;
+    }
+
+    synchronized DnsCacheEntry peek(String domain) {
+        return entries.get(domain);
+    }
+
+    synchronized void put(String domain, DnsCacheEntry entry) {
+        entries.put(domain, entry);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,7 @@
+package ru.nsu.g.akononov.proxy.dnsResolver;
+
+import java.net.InetAddress;
+
+public interface DnsCallback {
+    void onResolved(InetAddress[] addresses);
+}
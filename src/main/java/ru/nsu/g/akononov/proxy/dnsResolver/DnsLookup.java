@@ -0,0 +1,107 @@
+package ru.nsu.g.akononov.proxy.dnsResolver;
+
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+import ru.nsu.g.akononov.proxy.timer.Timeout;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+class DnsLookup {
+    private final String domain;
+    private final List<DnsWaiter> waiters = new ArrayList<>();
+    private final List<InetAddress> ipv4Addresses = new ArrayList<>();
+    private final List<InetAddress> ipv6Addresses = new ArrayList<>();
+    private final long startedAt = System.nanoTime();
+
+    private long ttl = Long.MAX_VALUE;
+    private int pendingQueries;
+    private boolean timedOut;
+    private boolean completed;
+    private Timeout resolutionDelay;
+
+    DnsLookup(String domain) {
+        this.domain = domain;
+    }
+
+    long getStartedAt() {
+        return startedAt;
+    }
+
+    String getDomain() {
+        return domain;
+    }
+
+    void addWaiter(SocksClient socksClient, int port) {
+        waiters.add(new DnsWaiter(socksClient, port));
+    }
+
+    void addWaiter(DnsCallback callback) {
+        waiters.add(new DnsWaiter(callback));
+    }
+
+    List<DnsWaiter> getWaiters() {
+        return waiters;
+    }
+
+    void onQueryStarted() {
+        ++pendingQueries;
+    }
+
+    void onQueryFinished(boolean isTimedOut) {
+        --pendingQueries;
+        timedOut |= isTimedOut;
+    }
+
+    void addAddress(InetAddress address, long ttl) {
+        if (address.getAddress().length == 4) {
+            ipv4Addresses.add(address);
+        } else {
+            ipv6Addresses.add(address);
+        }
+        this.ttl = Math.min(this.ttl, ttl);
+    }
+
+    InetAddress[] getAddresses() {
+        InetAddress[] addresses = new InetAddress[ipv4Addresses.size() + ipv6Addresses.size()];
+        int ipv4Index = 0;
+        int ipv6Index = 0;
+        for (int i = 0; i < addresses.length; ++i) {
+            boolean isIpv6Turn = (i % 2 == 0 || ipv4Index == ipv4Addresses.size()) && ipv6Index < ipv6Addresses.size();
+            addresses[i] = isIpv6Turn ? ipv6Addresses.get(ipv6Index++) : ipv4Addresses.get(ipv4Index++);
+        }
+        return addresses;
+    }
+
+    boolean hasAddresses() {
+        return !ipv4Addresses.isEmpty() || !ipv6Addresses.isEmpty();
+    }
+
+    long getTtl() {
+        return ttl;
+    }
+
+    boolean hasPendingQueries() {
+        return pendingQueries > 0;
+    }
+
+    boolean isTimedOut() {
+        return timedOut;
+    }
+
+    boolean isCompleted() {
+        return completed;
+    }
+
+    void setCompleted() {
+        completed = true;
+    }
+
+    Timeout getResolutionDelay() {
+        return resolutionDelay;
+    }
+
+    void setResolutionDelay(Timeout resolutionDelay) {
+        this.resolutionDelay = resolutionDelay;
+    }
+}
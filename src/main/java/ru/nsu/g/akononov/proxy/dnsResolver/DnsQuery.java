@@ -0,0 +1,58 @@
+package ru.nsu.g.akononov.proxy.dnsResolver;
+
+import org.xbill.DNS.Record;
+import ru.nsu.g.akononov.proxy.timer.Timeout;
+
+import java.nio.ByteBuffer;
+
+class DnsQuery {
+    private final int id;
+    private final DnsLookup lookup;
+    private final Record question;
+    private final byte[] message;
+
+    private final long deadline;
+    private int attempts;
+    private Timeout timeout;
+
+    DnsQuery(int id, DnsLookup lookup, Record question, byte[] message, long now, long queryTimeout) {
+        this.id = id;
+        this.lookup = lookup;
+        this.question = question;
+        this.message = message;
+        this.deadline = now + queryTimeout;
+    }
+
+    ByteBuffer nextAttempt() {
+        ++attempts;
+        return ByteBuffer.wrap(message);
+    }
+
+    int getId() {
+        return id;
+    }
+
+    DnsLookup getLookup() {
+        return lookup;
+    }
+
+    Record getQuestion() {
+        return question;
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    int getAttempts() {
+        return attempts;
+    }
+
+    Timeout getTimeout() {
+        return timeout;
+    }
+
+    void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+    }
+}
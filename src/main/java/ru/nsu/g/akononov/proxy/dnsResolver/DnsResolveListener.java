@@ -0,0 +1,11 @@
+package ru.nsu.g.akononov.proxy.dnsResolver;
+
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+
+import java.net.InetAddress;
+
+public interface DnsResolveListener {
+    void onResolved(SocksClient socksClient, InetAddress[] addresses, int port);
+
+    void onResolveFailed(SocksClient socksClient);
+}
@@ -1,116 +1,295 @@
 package ru.nsu.g.akononov.proxy.dnsResolver;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xbill.DNS.*;
 import org.xbill.DNS.Record;
 import ru.nsu.g.akononov.proxy.channelAttacments.ChannelAttachment;
 import ru.nsu.g.akononov.proxy.channelAttacments.ChannelRole;
-import ru.nsu.g.akononov.proxy.channelReader.ChannelReader;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+import ru.nsu.g.akononov.proxy.metrics.Histogram;
+import ru.nsu.g.akononov.proxy.timer.TimingWheel;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
 
 public class DnsResolver {
+    private static final Logger logger = LoggerFactory.getLogger(DnsResolver.class.getSimpleName());
+
     private final static int MAX_MESSAGE_LENGTH = 512;
+    private final static int MAX_MESSAGE_ID = 0xFFFF;
+    private final static long RESOLUTION_DELAY = 50;
 
-    private final Map<Integer, SelectionKey> domainNameClientMap = new HashMap<>();
+    private final Map<Integer, DnsQuery> pendingQueries = new HashMap<>();
+    private final Map<String, DnsLookup> pendingDomains = new HashMap<>();
+    private final Queue<ByteBuffer> outputQueue = new ArrayDeque<>();
+    private final ByteBuffer inputBuffer = ByteBuffer.allocate(MAX_MESSAGE_LENGTH);
+    private final SecureRandom random = new SecureRandom();
 
     private final InetSocketAddress address;
+    private final DnsCache cache;
+    private final TimingWheel timingWheel;
     private final DatagramChannel datagramChannel;
     private final SelectionKey dnsKey;
+    private final Histogram resolveLatency;
 
-    ByteBuffer outputBuffer = null;
-    private int messageID = 0;
+    private final long retransmitInterval;
+    private final long queryTimeout;
 
-    private final Resolver resolver;
+    private DnsResolveListener listener;
 
-    public DnsResolver(Selector selector, InetSocketAddress address) throws IOException {
+    public DnsResolver(Selector selector, InetSocketAddress address, DnsCache cache, TimingWheel timingWheel,
+                       long retransmitInterval, long queryTimeout, Histogram resolveLatency) throws IOException {
         this.address = address;
+        this.cache = cache;
+        this.timingWheel = timingWheel;
+        this.retransmitInterval = retransmitInterval;
+        this.queryTimeout = queryTimeout;
+        this.resolveLatency = resolveLatency;
+
         datagramChannel = DatagramChannel.open();
         datagramChannel.configureBlocking(false);
+        datagramChannel.connect(address);
         dnsKey = datagramChannel.register(selector, SelectionKey.OP_READ, new ChannelAttachment(null, ChannelRole.DNS));
+    }
+
+    public void setListener(DnsResolveListener listener) {
+        this.listener = listener;
+    }
 
-        SimpleResolver simpleResolver = new SimpleResolver(address.getAddress());
-        simpleResolver.setPort(address.getPort());
-        resolver = simpleResolver;
+    private int nextMessageID() {
+        int id;
+        do {
+            id = random.nextInt(MAX_MESSAGE_ID + 1);
+        } while (pendingQueries.containsKey(id));
+        return id;
     }
 
-    private byte[] makeDNSMessage(String name) throws TextParseException {
-        Message dnsMessage = new Message(++messageID);
+    private byte[] makeDNSMessage(int id, Record question) {
+        Message dnsMessage = new Message(id);
         Header header = dnsMessage.getHeader();
         header.setOpcode(Opcode.QUERY);
         header.setFlag(Flags.RD);
-        dnsMessage.addRecord(Record.newRecord(new Name(name), Type.A, DClass.IN), Section.QUESTION);
+        dnsMessage.addRecord(question, Section.QUESTION);
         return dnsMessage.toWire(MAX_MESSAGE_LENGTH);
     }
 
-    public void makeDNSRequest(String domain, SelectionKey key) throws TextParseException {
-        byte[] dnsMessage = makeDNSMessage(domain + ".");
-        domainNameClientMap.put(messageID, key);
+    public void resolve(String domain, int port, SocksClient socksClient) throws TextParseException {
+        String name = domain.toLowerCase(Locale.ROOT);
+        long now = timingWheel.now();
+
+        DnsCacheEntry entry = cache.lookup(name, now);
+        if (entry == null) {
+            makeDNSRequest(name).addWaiter(socksClient, port);
+            return;
+        }
 
-        if (outputBuffer != null) {
-            outputBuffer = ByteBuffer.allocate(outputBuffer.capacity() + dnsMessage.length).put(outputBuffer).put(dnsMessage);
+        if (entry.isExpired(now) && cache.startRefresh(entry)) {
+            makeDNSRequest(name);
+        }
+
+        if (entry.isNegative()) {
+            listener.onResolveFailed(socksClient);
         } else {
-            outputBuffer = ByteBuffer.wrap(dnsMessage);
+            listener.onResolved(socksClient, entry.getAddresses(), port);
         }
-        dnsKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
     }
 
-    public InetAddress resolve(String address) {
-        try {
-            Lookup lookup = new Lookup(address, Type.A);
-            lookup.setResolver(resolver);
+    public void resolve(String domain, DnsCallback callback) throws TextParseException {
+        String name = domain.toLowerCase(Locale.ROOT);
+        long now = timingWheel.now();
+
+        DnsCacheEntry entry = cache.lookup(name, now);
+        if (entry == null) {
+            makeDNSRequest(name).addWaiter(callback);
+            return;
+        }
+
+        if (entry.isExpired(now) && cache.startRefresh(entry)) {
+            makeDNSRequest(name);
+        }
+        callback.onResolved(entry.isNegative() ? null : entry.getAddresses());
+    }
+
+    public InetAddress lookup(String domain) throws TextParseException {
+        String name = domain.toLowerCase(Locale.ROOT);
+        long now = timingWheel.now();
+
+        DnsCacheEntry entry = cache.lookup(name, now);
+        if (entry == null) {
+            makeDNSRequest(name);
+            return null;
+        }
+
+        if (entry.isExpired(now) && cache.startRefresh(entry)) {
+            makeDNSRequest(name);
+        }
+        return entry.isNegative() ? null : entry.getAddresses()[0];
+    }
+
+    private DnsLookup makeDNSRequest(String domain) throws TextParseException {
+        DnsLookup lookup = pendingDomains.get(domain);
+        if (lookup == null) {
+            lookup = new DnsLookup(domain);
+            pendingDomains.put(domain, lookup);
+
+            startQuery(lookup, Type.AAAA);
+            startQuery(lookup, Type.A);
+        }
+        return lookup;
+    }
+
+    private void startQuery(DnsLookup lookup, int type) throws TextParseException {
+        int id = nextMessageID();
+        Record question = Record.newRecord(new Name(lookup.getDomain() + "."), type, DClass.IN);
+
+        DnsQuery query = new DnsQuery(id, lookup, question, makeDNSMessage(id, question), timingWheel.now(), queryTimeout);
+        pendingQueries.put(id, query);
+        lookup.onQueryStarted();
+
+        send(query);
+    }
 
-            Record[] result = lookup.run();
-            if (result.length > 0) {
-                return ((ARecord) result[0]).getAddress();
+    private void send(DnsQuery query) {
+        enqueue(query.nextAttempt());
+
+        long delay = Math.min(retransmitInterval << (query.getAttempts() - 1), query.getDeadline() - timingWheel.now());
+        query.setTimeout(timingWheel.schedule(delay, timeout -> onQueryTimeout(query)));
+    }
+
+    private void onQueryTimeout(DnsQuery query) {
+        if (timingWheel.now() < query.getDeadline()) {
+            send(query);
+            return;
+        }
+
+        pendingQueries.remove(query.getId());
+        logger.warn("DNS query for {} timed out", query.getLookup().getDomain());
+
+        query.getLookup().onQueryFinished(true);
+        onLookupProgress(query);
+    }
+
+    private void onLookupProgress(DnsQuery query) {
+        DnsLookup lookup = query.getLookup();
+
+        if (lookup.isCompleted()) {
+            if (lookup.hasAddresses()) {
+                cache.putAddresses(lookup.getDomain(), lookup.getAddresses(), lookup.getTtl(), timingWheel.now());
+            }
+        } else if (!lookup.hasPendingQueries()) {
+            completeLookup(lookup);
+        } else if (lookup.hasAddresses() && lookup.getResolutionDelay() == null) {
+            lookup.setResolutionDelay(timingWheel.schedule(RESOLUTION_DELAY, timeout -> completeLookup(lookup)));
+        }
+    }
+
+    private void completeLookup(DnsLookup lookup) {
+        lookup.setCompleted();
+        if (lookup.getResolutionDelay() != null) {
+            lookup.getResolutionDelay().cancel();
+        }
+        pendingDomains.remove(lookup.getDomain(), lookup);
+        resolveLatency.recordNanos(lookup.getStartedAt());
+
+        String domain = lookup.getDomain();
+        if (!lookup.hasAddresses()) {
+            logger.warn("Cannot resolve {}", domain);
+            if (lookup.isTimedOut()) {
+                cache.cancelRefresh(domain);
             } else {
-                return null;
+                cache.putFailure(domain, timingWheel.now());
             }
-        } catch (TextParseException e) {
-            System.err.println(e.getMessage());
-            return null;
+            for (DnsWaiter waiter : lookup.getWaiters()) {
+                waiter.notifyFailed(listener);
+            }
+            return;
+        }
+
+        InetAddress[] addresses = lookup.getAddresses();
+        cache.putAddresses(domain, addresses, lookup.getTtl(), timingWheel.now());
+        for (DnsWaiter waiter : lookup.getWaiters()) {
+            waiter.notifyResolved(listener, addresses);
         }
     }
 
-    public void sendDNSRequest(SelectionKey key) throws IOException {
-        datagramChannel.send(outputBuffer, address);
-        outputBuffer.compact();
+    private void enqueue(ByteBuffer message) {
+        outputQueue.add(message);
+        dnsKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
 
-        if (outputBuffer.position() == 0) {
-            outputBuffer = null;
-            key.interestOps(SelectionKey.OP_READ);
+    public void sendDNSRequest(SelectionKey key) throws IOException {
+        ByteBuffer message;
+        while ((message = outputQueue.peek()) != null) {
+            try {
+                if (datagramChannel.write(message) == 0) {
+                    return;
+                }
+            } catch (PortUnreachableException e) {
+                logger.warn("DNS server {} is unreachable", address);
+                continue;
+            }
+            outputQueue.poll();
         }
+        key.interestOps(SelectionKey.OP_READ);
     }
 
     public void readDNSMessage(SelectionKey key) throws IOException {
         DatagramChannel channel = (DatagramChannel) key.channel();
 
-        ByteBuffer inputBuffer = ByteBuffer.allocate(MAX_MESSAGE_LENGTH);
-        channel.receive(inputBuffer);
+        while (true) {
+            inputBuffer.clear();
+            try {
+                if (channel.read(inputBuffer) <= 0) {
+                    return;
+                }
+            } catch (PortUnreachableException e) {
+                logger.warn("DNS server {} is unreachable", address);
+                continue;
+            }
+            inputBuffer.flip();
 
-        Message dnsMessage = new Message(inputBuffer);
-        int id = dnsMessage.getHeader().getID();
+            Message dnsMessage;
+            try {
+                dnsMessage = new Message(inputBuffer);
+            } catch (IOException e) {
+                logger.warn("Malformed DNS message: {}", e.getMessage());
+                continue;
+            }
 
-        List<Record> answers = dnsMessage.getSection(Section.ANSWER);
+            Header header = dnsMessage.getHeader();
+            DnsQuery query = pendingQueries.get(header.getID());
+            if (query == null || !header.getFlag(Flags.QR) || !query.getQuestion().equals(dnsMessage.getQuestion())) {
+                continue;
+            }
+            pendingQueries.remove(query.getId());
+            query.getTimeout().cancel();
 
-        ARecord answer = null;
-        for (Record record : answers) {
-            if (record.getType() == Type.A) {
-                answer = (ARecord) record;
-                break;
+            DnsLookup lookup = query.getLookup();
+            if (dnsMessage.getRcode() == Rcode.NOERROR) {
+                for (Record record : dnsMessage.getSection(Section.ANSWER)) {
+                    if (record.getType() == Type.A) {
+                        lookup.addAddress(((ARecord) record).getAddress(), record.getTTL());
+                    } else if (record.getType() == Type.AAAA) {
+                        lookup.addAddress(((AAAARecord) record).getAddress(), record.getTTL());
+                    }
+                }
             }
-        }
 
-        assert answer != null;
-        ChannelReader.connect(((ChannelAttachment) key.attachment()).getSocksClient(),
-                new InetSocketAddress(answer.getAddress(), address.getPort()));
+            lookup.onQueryFinished(false);
+            onLookupProgress(query);
+        }
     }
-}
\ No newline at end of file
+}
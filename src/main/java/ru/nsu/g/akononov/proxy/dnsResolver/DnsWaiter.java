@@ -0,0 +1,39 @@
+package ru.nsu.g.akononov.proxy.dnsResolver;
+
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+
+import java.net.InetAddress;
+
+class DnsWaiter {
+    private final SocksClient socksClient;
+    private final int port;
+    private final DnsCallback callback;
+
+    DnsWaiter(SocksClient socksClient, int port) {
+        this.socksClient = socksClient;
+        this.port = port;
+        this.callback = null;
+    }
+
+    DnsWaiter(DnsCallback callback) {
+        this.socksClient = null;
+        this.port = 0;
+        this.callback = callback;
+    }
+
+    void notifyResolved(DnsResolveListener listener, InetAddress[] addresses) {
+        if (callback != null) {
+            callback.onResolved(addresses);
+        } else {
+            listener.onResolved(socksClient, addresses, port);
+        }
+    }
+
+    void notifyFailed(DnsResolveListener listener) {
+        if (callback != null) {
+            callback.onResolved(null);
+        } else {
+            listener.onResolveFailed(socksClient);
+        }
+    }
+}
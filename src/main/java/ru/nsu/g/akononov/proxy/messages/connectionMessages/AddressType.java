@@ -32,12 +32,15 @@ public enum AddressType {
     }
 
     public static AddressType getByValue(byte value) {
-        for (AddressType type : values()) {
-            if (type.getValue() == value) {
-                return type;
-            }
+        switch (value) {
+            case 0x01:
+                return IPV4_ADDRESS;
+            case 0x03:
+                return DOMAIN_NAME;
+            case 0x04:
+                return IPV6_ADDRESS;
+            default:
+                throw new IllegalArgumentException();
         }
-
-        throw new IllegalArgumentException();
     }
 }
\ No newline at end of file
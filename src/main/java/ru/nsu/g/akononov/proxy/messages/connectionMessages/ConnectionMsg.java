@@ -2,80 +2,71 @@ package ru.nsu.g.akononov.proxy.messages.connectionMessages;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 public class ConnectionMsg {
-    private final byte socksVersion;
-    private final RequestCode requestCommand;
     private static final byte RESERVED = (byte) 0x00;
-    private final AddressType addressType;
-    private final InetAddress address;
-    private final String domain;
-    private final int port;
-
-    public ConnectionMsg(byte socksVersion, AddressType addressType, InetAddress address, int port) {
-        this.socksVersion = socksVersion;
-        this.addressType = addressType;
-        this.address = address;
-        this.domain = null;
-        this.port = port;
-        requestCommand = null;
-    }
-
-    public byte[] getResponseBytes(ResponseCode responseCode){
-        int size = addressType.getSize(domain) + 6;
-        ByteBuffer buffer = ByteBuffer.allocate(size);
-
-        buffer.put(socksVersion);
-        buffer.put(responseCode.getValue());
-        buffer.put(RESERVED);
-        buffer.put(addressType.getValue());
+    private static final int HEADER_SIZE = 4;
+    private static final int PORT_SIZE = 2;
+
+    private ByteBuffer buffer;
+    private byte socksVersion;
+    private RequestCode requestCommand;
+    private AddressType addressType;
+    private int addressOffset;
+    private int addressLength;
+    private int port;
+    private int length;
+
+    public boolean read(ByteBuffer buffer) throws IllegalArgumentException {
+        int available = buffer.position();
+        if (available < HEADER_SIZE + 1) {
+            return false;
+        }
+        if (buffer.get(2) != RESERVED) {
+            throw new IllegalArgumentException();
+        }
 
-        if(addressType == AddressType.DOMAIN_NAME){
-            assert domain != null;
-            buffer.put(domain.getBytes(StandardCharsets.UTF_8));
+        AddressType type = AddressType.getByValue(buffer.get(3));
+        int offset = HEADER_SIZE;
+        int size;
+        if (type == AddressType.DOMAIN_NAME) {
+            size = buffer.get(HEADER_SIZE) & 0xFF;
+            offset++;
         } else {
-            assert address != null;
-            buffer.put(address.getAddress());
+            size = type.getSize(null);
+        }
+        if (available < offset + size + PORT_SIZE) {
+            return false;
         }
 
-        buffer.putShort((short) port);
-        return buffer.array();
+        this.buffer = buffer;
+        socksVersion = buffer.get(0);
+        requestCommand = RequestCode.getByValue(buffer.get(1));
+        addressType = type;
+        addressOffset = offset;
+        addressLength = size;
+        port = buffer.getShort(offset + size) & 0xFFFF;
+        length = offset + size + PORT_SIZE;
+        return true;
     }
 
-    public ConnectionMsg(ByteBuffer buffer) throws BufferUnderflowException, IllegalArgumentException {
+    public void consume() {
         buffer.flip();
-        socksVersion = buffer.get();
-        requestCommand = RequestCode.getByValue(buffer.get());
-
-        if(buffer.get() != RESERVED){
-            throw new IllegalArgumentException();
-        }
-        addressType = AddressType.getByValue(buffer.get());
-
-        if(addressType == AddressType.DOMAIN_NAME){
-            byte domainNameLength = buffer.get();
-            byte[] domainName = new byte[domainNameLength];
-            buffer.get(domainName);
-
-            domain = new String(domainName, StandardCharsets.UTF_8);
-            address = null;
-        }else {
-            int size = addressType.getSize(null);
-            byte[] rawInetAddress = new byte[size];
-            buffer.get(rawInetAddress);
-
-            try {
-                address = InetAddress.getByAddress(rawInetAddress);
-                domain = null;
-            } catch (UnknownHostException uhe) {
-                throw new IllegalArgumentException("Invalid address received");
-            }
-        }
-        port = buffer.getShort();
+        buffer.position(length);
         buffer.compact();
+        buffer = null;
+    }
+
+    public static void putResponse(ByteBuffer buffer, byte socksVersion, ResponseCode responseCode,
+                                   byte[] address, int port) {
+        buffer.put(socksVersion);
+        buffer.put(responseCode.getValue());
+        buffer.put(RESERVED);
+        buffer.put(address.length == 4 ? AddressType.IPV4_ADDRESS.getValue() : AddressType.IPV6_ADDRESS.getValue());
+        buffer.put(address);
+        buffer.putShort((short) port);
     }
 
     public byte getSocksVersion() {
@@ -87,21 +78,31 @@ public class ConnectionMsg {
     }
 
     public RequestCode getRequestCommand() {
-        if(requestCommand == null){
-            throw new UnsupportedOperationException();
-        }
         return requestCommand;
     }
 
-    public InetAddress getAddress() {
-        return address;
+    public InetAddress getAddress() throws IllegalArgumentException {
+        byte[] rawInetAddress = new byte[addressLength];
+        for (int i = 0; i < addressLength; ++i) {
+            rawInetAddress[i] = buffer.get(addressOffset + i);
+        }
+
+        try {
+            return InetAddress.getByAddress(rawInetAddress);
+        } catch (UnknownHostException uhe) {
+            throw new IllegalArgumentException("Invalid address received");
+        }
     }
 
     public String getDomain() {
-        return domain;
+        byte[] domainName = new byte[addressLength];
+        for (int i = 0; i < addressLength; ++i) {
+            domainName[i] = buffer.get(addressOffset + i);
+        }
+        return new String(domainName, StandardCharsets.UTF_8);
     }
 
     public int getPort() {
         return port;
     }
-}
\ No newline at end of file
+}
@@ -3,6 +3,8 @@ package ru.nsu.g.akononov.proxy.messages.connectionMessages;
 public enum ResponseCode {
     REQUEST_GRANTED     ((byte)0x00),
     HOST_UNREACHABLE    ((byte)0x04),
+    CONNECTION_REFUSED  ((byte)0x05),
+    TTL_EXPIRED         ((byte)0x06),
     CMD_NOT_SUPPORTED   ((byte)0x07);
 
     private final byte value;
@@ -27,4 +27,8 @@ public enum AuthMethod {
     public byte getValue() {
         return value;
     }
+
+    public int getMask() {
+        return 1 << ordinal();
+    }
 }
\ No newline at end of file
@@ -1,45 +1,49 @@
 package ru.nsu.g.akononov.proxy.messages.greetingMessage;
 
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.util.HashSet;
-import java.util.Set;
 
 public class GreetingMessage {
-    private final byte socksVersion;
-    private final Set<AuthMethod> authMethods = new HashSet<>();
+    private static final int HEADER_SIZE = 2;
 
-    public GreetingMessage(byte socksVersion, AuthMethod authMethod) {
-        this.socksVersion = socksVersion;
-        this.authMethods.add(authMethod);
-    }
-
-    public GreetingMessage(ByteBuffer buffer)
-            throws BufferUnderflowException, IllegalArgumentException {
-        buffer.flip();
+    private byte socksVersion;
+    private int authMethods;
+    private int length;
 
-        socksVersion = buffer.get();
-        byte authMethodsNum = buffer.get();
+    public boolean read(ByteBuffer buffer) throws IllegalArgumentException {
+        int available = buffer.position();
+        if (available < HEADER_SIZE) {
+            return false;
+        }
 
-        if(authMethodsNum < 0){
-            throw new RuntimeException();
+        int authMethodsNum = buffer.get(1) & 0xFF;
+        if (authMethodsNum == 0) {
+            throw new IllegalArgumentException("No auth methods offered");
+        }
+        if (available < HEADER_SIZE + authMethodsNum) {
+            return false;
         }
-        for (int i = 0; i < authMethodsNum; ++i) {
-            AuthMethod authMethod = AuthMethod.getByValue(buffer.get());
 
+        socksVersion = buffer.get(0);
+        authMethods = 0;
+        for (int i = HEADER_SIZE; i < HEADER_SIZE + authMethodsNum; ++i) {
+            AuthMethod authMethod = AuthMethod.getByValue(buffer.get(i));
             if (authMethod != null) {
-                authMethods.add(authMethod);
+                authMethods |= authMethod.getMask();
             }
         }
+        length = HEADER_SIZE + authMethodsNum;
+        return true;
+    }
+
+    public void consume(ByteBuffer buffer) {
+        buffer.flip();
+        buffer.position(length);
         buffer.compact();
     }
 
-    public byte[] toByteResponse() {
-        byte[] byteArray = new byte[2];
-        byteArray[0] = socksVersion;
-        AuthMethod authMethod = (AuthMethod) authMethods.toArray()[0];
-        byteArray[1] = authMethod.getValue();
-        return byteArray;
+    public static void putResponse(ByteBuffer buffer, byte socksVersion, AuthMethod authMethod) {
+        buffer.put(socksVersion);
+        buffer.put(authMethod.getValue());
     }
 
     public byte getSocksVersion() {
@@ -47,6 +51,6 @@ public class GreetingMessage {
     }
 
     public boolean hasAuthMethod(AuthMethod method) {
-        return authMethods.contains(method);
+        return (authMethods & method.getMask()) != 0;
     }
-}
\ No newline at end of file
+}
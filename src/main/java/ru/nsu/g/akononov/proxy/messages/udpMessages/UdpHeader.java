@@ -0,0 +1,124 @@
+package ru.nsu.g.akononov.proxy.messages.udpMessages;
+
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.AddressType;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class UdpHeader {
+    public static final int MAX_SIZE = 262;
+
+    private static final int FRAGMENT_OFFSET = 2;
+    private static final int ADDRESS_TYPE_OFFSET = 3;
+    private static final int PREFIX_SIZE = 4;
+    private static final int PORT_SIZE = 2;
+
+    private ByteBuffer buffer;
+    private int start;
+    private AddressType addressType;
+    private int addressOffset;
+    private int addressLength;
+    private int port;
+    private int length;
+
+    public boolean read(ByteBuffer buffer) {
+        int start = buffer.position();
+        int available = buffer.remaining();
+        if (available < PREFIX_SIZE + 1 || buffer.get(start + FRAGMENT_OFFSET) != 0) {
+            return false;
+        }
+
+        AddressType type;
+        try {
+            type = AddressType.getByValue(buffer.get(start + ADDRESS_TYPE_OFFSET));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        int offset = PREFIX_SIZE;
+        int size;
+        if (type == AddressType.DOMAIN_NAME) {
+            size = buffer.get(start + PREFIX_SIZE) & 0xFF;
+            offset++;
+        } else {
+            size = type.getSize(null);
+        }
+        if (available < offset + size + PORT_SIZE) {
+            return false;
+        }
+
+        this.buffer = buffer;
+        this.start = start;
+        addressType = type;
+        addressOffset = start + offset;
+        addressLength = size;
+        port = buffer.getShort(addressOffset + size) & 0xFFFF;
+        length = offset + size + PORT_SIZE;
+        return true;
+    }
+
+    public boolean addressEquals(byte[] address) {
+        if (address == null || address.length != length - ADDRESS_TYPE_OFFSET) {
+            return false;
+        }
+        for (int i = 0; i < address.length; ++i) {
+            if (address[i] != buffer.get(start + ADDRESS_TYPE_OFFSET + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public byte[] copyAddress() {
+        byte[] address = new byte[length - ADDRESS_TYPE_OFFSET];
+        for (int i = 0; i < address.length; ++i) {
+            address[i] = buffer.get(start + ADDRESS_TYPE_OFFSET + i);
+        }
+        return address;
+    }
+
+    public static byte[] toBytes(InetSocketAddress source) {
+        InetAddress address = source.getAddress();
+        AddressType type = address instanceof Inet4Address ? AddressType.IPV4_ADDRESS : AddressType.IPV6_ADDRESS;
+
+        ByteBuffer header = ByteBuffer.allocate(PREFIX_SIZE + type.getSize(null) + PORT_SIZE);
+        header.putShort((short) 0);
+        header.put((byte) 0);
+        header.put(type.getValue());
+        header.put(address.getAddress());
+        header.putShort((short) source.getPort());
+        return header.array();
+    }
+
+    public AddressType getAddressType() {
+        return addressType;
+    }
+
+    public InetAddress getAddress() throws UnknownHostException {
+        byte[] rawInetAddress = new byte[addressLength];
+        for (int i = 0; i < addressLength; ++i) {
+            rawInetAddress[i] = buffer.get(addressOffset + i);
+        }
+        return InetAddress.getByAddress(rawInetAddress);
+    }
+
+    public String getDomain() {
+        byte[] domainName = new byte[addressLength];
+        for (int i = 0; i < addressLength; ++i) {
+            domainName[i] = buffer.get(addressOffset + i);
+        }
+        return new String(domainName, StandardCharsets.UTF_8);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
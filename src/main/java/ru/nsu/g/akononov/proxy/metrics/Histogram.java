@@ -0,0 +1,57 @@
+package ru.nsu.g.akononov.proxy.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value) {
+        value = Math.min(Math.max(value, 0), MAX_VALUE);
+        counts.incrementAndGet(indexOf(value));
+        sum.add(value);
+    }
+
+    public void recordNanos(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    void writeTo(PrometheusWriter writer, String name, String help, double unit) {
+        writer.header(name, help, "histogram");
+
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            cumulative += counts.get(i);
+            if (i >= 2 * SUB_BUCKETS - 1 && i % SUB_BUCKETS == SUB_BUCKETS - 1) {
+                writer.sample(name + "_bucket", "le", Double.toString(upperBoundOf(i) / unit), cumulative);
+            }
+        }
+        writer.sample(name + "_bucket", "le", "+Inf", cumulative);
+        writer.sample(name + "_sum", sum.sum() / unit);
+        writer.sample(name + "_count", cumulative);
+    }
+}
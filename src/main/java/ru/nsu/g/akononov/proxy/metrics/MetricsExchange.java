@@ -0,0 +1,54 @@
+package ru.nsu.g.akononov.proxy.metrics;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+class MetricsExchange {
+    private static final int MAX_REQUEST_SIZE = 4096;
+
+    private final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+    private final long deadline;
+    private ByteBuffer response;
+
+    MetricsExchange(long deadline) {
+        this.deadline = deadline;
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    ByteBuffer getRequest() {
+        return request;
+    }
+
+    boolean isRequestComplete() {
+        for (int i = 3; i < request.position(); ++i) {
+            if (request.get(i - 3) == '\r' && request.get(i - 2) == '\n'
+                    && request.get(i - 1) == '\r' && request.get(i) == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String getRequestLine() {
+        int end = 0;
+        while (end < request.position() && request.get(end) != '\r') {
+            ++end;
+        }
+        byte[] line = new byte[end];
+        ByteBuffer copy = request.duplicate();
+        copy.flip();
+        copy.get(line);
+        return new String(line, StandardCharsets.US_ASCII);
+    }
+
+    ByteBuffer getResponse() {
+        return response;
+    }
+
+    void setResponse(ByteBuffer response) {
+        this.response = response;
+    }
+}
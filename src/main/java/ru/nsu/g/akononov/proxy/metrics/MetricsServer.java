@@ -0,0 +1,164 @@
+package ru.nsu.g.akononov.proxy.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.nsu.g.akononov.proxy.timer.TimingWheel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static java.nio.channels.SelectionKey.*;
+
+public class MetricsServer {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsServer.class.getSimpleName());
+
+    private static final int MAX_EXCHANGES = 16;
+    private static final String METRICS_PATH = "/metrics";
+
+    private final MetricsSource source;
+    private final long timeout;
+    private final Deque<SelectionKey> exchanges = new ArrayDeque<>();
+
+    public MetricsServer(MetricsSource source, long timeout) {
+        this.source = source;
+        this.timeout = timeout;
+    }
+
+    public void register(Selector selector, InetSocketAddress address) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, OP_ACCEPT, this);
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+        logger.info("Serving metrics on {}", address);
+    }
+
+    public long getNextDeadline() {
+        SelectionKey key = exchanges.peekFirst();
+        return key == null ? 0 : ((MetricsExchange) key.attachment()).getDeadline();
+    }
+
+    public void closeExpired(long now) {
+        SelectionKey key;
+        while ((key = exchanges.peekFirst()) != null && ((MetricsExchange) key.attachment()).getDeadline() <= now) {
+            logger.debug("Metrics exchange timed out");
+            close(key);
+        }
+    }
+
+    public boolean owns(SelectionKey key) {
+        return key.attachment() == this || key.attachment() instanceof MetricsExchange;
+    }
+
+    public void process(SelectionKey key) {
+        try {
+            if (key.isValid() && key.isAcceptable()) {
+                accept(key);
+            }
+            if (key.isValid() && key.isReadable()) {
+                read(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+                write(key);
+            }
+        } catch (IOException e) {
+            logger.debug("Metrics exchange failed: {}", e.getMessage());
+            close(key);
+        }
+    }
+
+    private void accept(SelectionKey key) throws IOException {
+        SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+        if (channel == null) {
+            return;
+        }
+        if (exchanges.size() >= MAX_EXCHANGES) {
+            channel.close();
+            return;
+        }
+
+        channel.configureBlocking(false);
+        MetricsExchange exchange = new MetricsExchange(TimingWheel.currentTime() + timeout);
+        exchanges.addLast(channel.register(key.selector(), OP_READ, exchange));
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        MetricsExchange exchange = (MetricsExchange) key.attachment();
+        ByteBuffer request = exchange.getRequest();
+
+        if (((SocketChannel) key.channel()).read(request) == -1) {
+            close(key);
+            return;
+        }
+        if (exchange.isRequestComplete()) {
+            respond(key, exchange, exchange.getRequestLine());
+        } else if (!request.hasRemaining()) {
+            respond(key, exchange, "");
+        }
+    }
+
+    private void respond(SelectionKey key, MetricsExchange exchange, String requestLine) {
+        String[] parts = requestLine.split(" ");
+        String status;
+        String body;
+        if (parts.length != 3) {
+            status = "400 Bad Request";
+            body = "";
+        } else if (!parts[0].equals("GET")) {
+            status = "405 Method Not Allowed";
+            body = "";
+        } else if (!parts[1].equals(METRICS_PATH)) {
+            status = "404 Not Found";
+            body = "";
+        } else {
+            PrometheusWriter writer = new PrometheusWriter();
+            source.writeMetrics(writer);
+            status = "200 OK";
+            body = writer.toString();
+        }
+
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"
+                + "Content-Length: " + bodyBytes.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+
+        ByteBuffer response = ByteBuffer.allocate(headBytes.length + bodyBytes.length);
+        response.put(headBytes).put(bodyBytes).flip();
+        exchange.setResponse(response);
+        key.interestOps(OP_WRITE);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        MetricsExchange exchange = (MetricsExchange) key.attachment();
+        ((SocketChannel) key.channel()).write(exchange.getResponse());
+        if (!exchange.getResponse().hasRemaining()) {
+            close(key);
+        }
+    }
+
+    private void close(SelectionKey key) {
+        if (!(key.attachment() instanceof MetricsExchange) || !exchanges.remove(key)) {
+            return;
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            logger.warn("Cannot close metrics channel: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package ru.nsu.g.akononov.proxy.metrics;
+
+public interface MetricsSource {
+    void writeMetrics(PrometheusWriter writer);
+}
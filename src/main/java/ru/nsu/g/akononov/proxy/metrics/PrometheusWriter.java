@@ -0,0 +1,38 @@
+package ru.nsu.g.akononov.proxy.metrics;
+
+public class PrometheusWriter {
+    private final StringBuilder out = new StringBuilder(16 * 1024);
+
+    public void counter(String name, String help, long value) {
+        header(name, help, "counter");
+        sample(name, value);
+    }
+
+    public void gauge(String name, String help, long value) {
+        header(name, help, "gauge");
+        sample(name, value);
+    }
+
+    public void header(String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    void sample(String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    void sample(String name, double value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    public void sample(String name, String label, String labelValue, long value) {
+        out.append(name).append('{').append(label).append("=\"").append(labelValue).append("\"} ")
+                .append(value).append('\n');
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+}
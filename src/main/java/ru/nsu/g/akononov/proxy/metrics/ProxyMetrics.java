@@ -0,0 +1,124 @@
+package ru.nsu.g.akononov.proxy.metrics;
+
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClientState;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static ru.nsu.g.akononov.proxy.channelClient.SocksClientState.*;
+
+public class ProxyMetrics {
+    private static final double MICROS_PER_SECOND = 1e6;
+
+    private final Histogram greetingLatency = new Histogram();
+    private final Histogram requestLatency = new Histogram();
+    private final Histogram dnsLatency = new Histogram();
+    private final Histogram connectLatency = new Histogram();
+    private final Histogram firstByteLatency = new Histogram();
+    private final Histogram loopTime = new Histogram();
+    private final Histogram keysPerSelect = new Histogram();
+
+    private final LongAdder acceptedClients = new LongAdder();
+    private final LongAdder clientToDestBytes = new LongAdder();
+    private final LongAdder destToClientBytes = new LongAdder();
+    private final LongAdder readPauses = new LongAdder();
+    private final LongAdder readBudgetExhausted = new LongAdder();
+    private final LongAdder[] clientsByState = new LongAdder[SocksClientState.values().length];
+
+    public ProxyMetrics() {
+        for (int i = 0; i < clientsByState.length; ++i) {
+            clientsByState[i] = new LongAdder();
+        }
+    }
+
+    public void onStateChanged(SocksClient socksClient, SocksClientState from, SocksClientState to) {
+        long now = System.nanoTime();
+        if (from == null) {
+            acceptedClients.increment();
+            socksClient.setPhaseStart(now);
+        } else if (from != CLOSED) {
+            clientsByState[from.ordinal()].decrement();
+        }
+        if (to != CLOSED) {
+            clientsByState[to.ordinal()].increment();
+        }
+
+        if (to == CLOSED || to == RECV_CONN_REQ) {
+            return;
+        }
+        if (from == RECV_INIT_GREETING) {
+            greetingLatency.recordNanos(socksClient.getPhaseStart());
+            socksClient.setPhaseStart(now);
+        } else if (from == SEND_GREETING_RESP || from == RECV_CONN_REQ) {
+            requestLatency.recordNanos(socksClient.getPhaseStart());
+            socksClient.setPhaseStart(now);
+        }
+        if (to == ACTIVE) {
+            socksClient.setPhaseStart(now);
+        }
+    }
+
+    public void onFirstByte(SocksClient socksClient) {
+        firstByteLatency.recordNanos(socksClient.getPhaseStart());
+        socksClient.setPhaseStart(0);
+    }
+
+    public void onClientToDest(long bytesCount) {
+        clientToDestBytes.add(bytesCount);
+    }
+
+    public void onDestToClient(long bytesCount) {
+        destToClientBytes.add(bytesCount);
+    }
+
+    public void onReadPaused() {
+        readPauses.increment();
+    }
+
+    public void onReadBudgetExhausted() {
+        readBudgetExhausted.increment();
+    }
+
+    public Histogram getDnsLatency() {
+        return dnsLatency;
+    }
+
+    public Histogram getConnectLatency() {
+        return connectLatency;
+    }
+
+    public Histogram getLoopTime() {
+        return loopTime;
+    }
+
+    public Histogram getKeysPerSelect() {
+        return keysPerSelect;
+    }
+
+    public void writeTo(PrometheusWriter writer) {
+        greetingLatency.writeTo(writer, "socks_greeting_seconds", "Time from accept to a parsed greeting", MICROS_PER_SECOND);
+        requestLatency.writeTo(writer, "socks_request_seconds", "Time from greeting to a parsed request", MICROS_PER_SECOND);
+        dnsLatency.writeTo(writer, "socks_dns_resolve_seconds", "DNS lookup time", MICROS_PER_SECOND);
+        connectLatency.writeTo(writer, "socks_connect_seconds", "TCP connect time to the destination", MICROS_PER_SECOND);
+        firstByteLatency.writeTo(writer, "socks_first_byte_seconds", "Time from the reply to the first destination byte", MICROS_PER_SECOND);
+        loopTime.writeTo(writer, "socks_loop_iteration_seconds", "Reactor time spent per select() wakeup", MICROS_PER_SECOND);
+        keysPerSelect.writeTo(writer, "socks_loop_keys", "Keys processed per select() wakeup", 1);
+
+        writer.counter("socks_accepted_clients_total", "Accepted client connections", acceptedClients.sum());
+
+        writer.header("socks_relayed_bytes_total", "Bytes relayed per direction", "counter");
+        writer.sample("socks_relayed_bytes_total", "direction", "client_to_dest", clientToDestBytes.sum());
+        writer.sample("socks_relayed_bytes_total", "direction", "dest_to_client", destToClientBytes.sum());
+
+        writer.counter("socks_rate_limit_pauses_total", "Relay reads paused by rate limits", readPauses.sum());
+        writer.counter("socks_read_budget_exhausted_total", "Relay reads that used up the per-key budget",
+                readBudgetExhausted.sum());
+
+        writer.header("socks_clients", "Open clients by state", "gauge");
+        for (SocksClientState state : SocksClientState.values()) {
+            if (state != CLOSED) {
+                writer.sample("socks_clients", "state", state.name(), clientsByState[state.ordinal()].sum());
+            }
+        }
+    }
+}
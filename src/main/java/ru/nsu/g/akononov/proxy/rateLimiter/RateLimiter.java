@@ -0,0 +1,102 @@
+package ru.nsu.g.akononov.proxy.rateLimiter;
+
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClientState;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiter {
+    private final long perClientRate;
+    private final long perDestinationRate;
+    private final long burstTolerance;
+    private final TokenBucket globalBucket;
+
+    private final Map<Object, TokenBucket> clientBuckets = new ConcurrentHashMap<>();
+    private final Map<Object, TokenBucket> destinationBuckets = new ConcurrentHashMap<>();
+
+    public RateLimiter(long globalRate, long perClientRate, long perDestinationRate, long burstMs) {
+        this.perClientRate = perClientRate;
+        this.perDestinationRate = perDestinationRate;
+        this.burstTolerance = TimeUnit.MILLISECONDS.toNanos(burstMs);
+        this.globalBucket = globalRate > 0 ? new TokenBucket(null, globalRate, burstTolerance, System.nanoTime()) : null;
+    }
+
+    public boolean isEnabled() {
+        return globalBucket != null || perClientRate > 0 || perDestinationRate > 0;
+    }
+
+    public void onStateChanged(SocksClient socksClient, SocksClientState from, SocksClientState to) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (from == null) {
+            onOpened(socksClient);
+        } else if (to == SocksClientState.ACTIVE) {
+            onActive(socksClient);
+        } else if (to == SocksClientState.CLOSED) {
+            onClosed(socksClient);
+        }
+    }
+
+    private void onOpened(SocksClient socksClient) {
+        if (perClientRate > 0) {
+            socksClient.setClientBucket(acquire(clientBuckets, socksClient.getClientAddress().getAddress(), perClientRate));
+        }
+    }
+
+    private void onActive(SocksClient socksClient) {
+        if (perDestinationRate > 0 && socksClient.getDestAddress() != null) {
+            socksClient.setDestBucket(acquire(destinationBuckets, socksClient.getDestAddress().getAddress(), perDestinationRate));
+        }
+    }
+
+    private void onClosed(SocksClient socksClient) {
+        if (socksClient.getClientBucket() != null) {
+            release(clientBuckets, socksClient.getClientBucket());
+            socksClient.setClientBucket(null);
+        }
+        if (socksClient.getDestBucket() != null) {
+            release(destinationBuckets, socksClient.getDestBucket());
+            socksClient.setDestBucket(null);
+        }
+    }
+
+    public long charge(SocksClient socksClient, long bytesCount) {
+        long now = System.nanoTime();
+        long delay = 0;
+        if (globalBucket != null) {
+            delay = globalBucket.charge(bytesCount, now);
+        }
+        if (socksClient.getClientBucket() != null) {
+            delay = Math.max(delay, socksClient.getClientBucket().charge(bytesCount, now));
+        }
+        if (socksClient.getDestBucket() != null) {
+            delay = Math.max(delay, socksClient.getDestBucket().charge(bytesCount, now));
+        }
+        return delay;
+    }
+
+    private TokenBucket acquire(Map<Object, TokenBucket> buckets, Object key, long rate) {
+        return buckets.compute(key, (k, bucket) -> {
+            if (bucket == null) {
+                bucket = new TokenBucket(k, rate, burstTolerance, System.nanoTime());
+            }
+            bucket.retain();
+            return bucket;
+        });
+    }
+
+    private static void release(Map<Object, TokenBucket> buckets, TokenBucket bucket) {
+        buckets.computeIfPresent(bucket.getKey(), (k, current) -> current.release() ? null : current);
+    }
+
+    public int getClientBucketsCount() {
+        return clientBuckets.size();
+    }
+
+    public int getDestinationBucketsCount() {
+        return destinationBuckets.size();
+    }
+}
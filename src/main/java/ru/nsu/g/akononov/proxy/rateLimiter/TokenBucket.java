@@ -0,0 +1,45 @@
+package ru.nsu.g.akononov.proxy.rateLimiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TokenBucket {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Object key;
+    private final long bytesPerSecond;
+    private final long burstTolerance;
+    private final AtomicLong theoreticalArrival;
+
+    private int references = 0;
+
+    TokenBucket(Object key, long bytesPerSecond, long burstTolerance, long now) {
+        this.key = key;
+        this.bytesPerSecond = bytesPerSecond;
+        this.burstTolerance = burstTolerance;
+        this.theoreticalArrival = new AtomicLong(now);
+    }
+
+    public long charge(long bytesCount, long now) {
+        long increment = bytesCount * NANOS_PER_SECOND / bytesPerSecond;
+        while (true) {
+            long arrival = theoreticalArrival.get();
+            long nextArrival = Math.max(arrival, now) + increment;
+            if (theoreticalArrival.compareAndSet(arrival, nextArrival)) {
+                return nextArrival - now - burstTolerance;
+            }
+        }
+    }
+
+    Object getKey() {
+        return key;
+    }
+
+    void retain() {
+        ++references;
+    }
+
+    boolean release() {
+        return --references == 0;
+    }
+}
@@ -0,0 +1,61 @@
+package ru.nsu.g.akononov.proxy.server;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class AdmissionControl {
+    private final int maxClients;
+    private final int maxClientsPerIp;
+
+    private final AtomicInteger clientsCount = new AtomicInteger();
+    private final Map<InetAddress, Integer> clientsPerIp = new ConcurrentHashMap<>();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private AdmissionListener listener;
+
+    public AdmissionControl(int maxClients, int maxClientsPerIp) {
+        this.maxClients = maxClients;
+        this.maxClientsPerIp = maxClientsPerIp;
+    }
+
+    public void setListener(AdmissionListener listener) {
+        this.listener = listener;
+    }
+
+    public boolean hasCapacity() {
+        return maxClients == 0 || clientsCount.get() < maxClients;
+    }
+
+    public boolean tryAdmit(InetAddress address) {
+        if (maxClientsPerIp > 0 && clientsPerIp.merge(address, 1, Integer::sum) > maxClientsPerIp) {
+            releaseAddress(address);
+            rejectedCount.increment();
+            return false;
+        }
+        clientsCount.incrementAndGet();
+        return true;
+    }
+
+    public void release(InetAddress address) {
+        if (maxClientsPerIp > 0 && address != null) {
+            releaseAddress(address);
+        }
+        clientsCount.decrementAndGet();
+        listener.onClientReleased();
+    }
+
+    private void releaseAddress(InetAddress address) {
+        clientsPerIp.computeIfPresent(address, (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    public int getClientsCount() {
+        return clientsCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+}
@@ -0,0 +1,5 @@
+package ru.nsu.g.akononov.proxy.server;
+
+public interface AdmissionListener {
+    void onClientReleased();
+}
@@ -0,0 +1,108 @@
+package ru.nsu.g.akononov.proxy.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClientState;
+import ru.nsu.g.akononov.proxy.channelClient.TimeoutPhase;
+import ru.nsu.g.akononov.proxy.channelReader.ChannelReader;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.ResponseCode;
+import ru.nsu.g.akononov.proxy.timer.Timeout;
+import ru.nsu.g.akononov.proxy.timer.TimingWheel;
+
+import java.io.IOException;
+
+public class ClientTimeouts {
+    private static final Logger logger = LoggerFactory.getLogger(ClientTimeouts.class.getSimpleName());
+
+    private final TimingWheel timingWheel;
+    private final ChannelReader reader;
+
+    private final long greetingTimeout;
+    private final long requestTimeout;
+    private final long connectTimeout;
+    private final long bindTimeout;
+    private final long idleTimeout;
+
+    public ClientTimeouts(ProxyConfig config, TimingWheel timingWheel, ChannelReader reader) {
+        this.timingWheel = timingWheel;
+        this.reader = reader;
+
+        greetingTimeout = config.getGreetingTimeoutMs();
+        requestTimeout = config.getRequestTimeoutMs();
+        connectTimeout = config.getConnectTimeoutMs();
+        bindTimeout = config.getBindTimeoutMs();
+        idleTimeout = config.getIdleTimeoutMs();
+    }
+
+    public void onStateChanged(SocksClient socksClient, SocksClientState from, SocksClientState to) {
+        TimeoutPhase phase = to.getTimeoutPhase();
+        if (from != null && from.getTimeoutPhase() == phase) {
+            return;
+        }
+        if (phase == TimeoutPhase.IDLE) {
+            socksClient.touch(timingWheel.now());
+        }
+        arm(socksClient, getTimeout(phase));
+    }
+
+    private void arm(SocksClient socksClient, long delay) {
+        Timeout timeout = socksClient.getTimeout();
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        socksClient.setTimeout(delay > 0 ? timingWheel.schedule(delay, expired -> onTimeout(socksClient)) : null);
+    }
+
+    private long getTimeout(TimeoutPhase phase) {
+        switch (phase) {
+            case GREETING:
+                return greetingTimeout;
+            case REQUEST:
+                return requestTimeout;
+            case CONNECT:
+                return connectTimeout;
+            case BIND:
+                return bindTimeout;
+            case IDLE:
+                return idleTimeout;
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private void onTimeout(SocksClient socksClient) {
+        SocksClientState state = socksClient.getSocksClientState();
+
+        try {
+            if (state.getTimeoutPhase() == TimeoutPhase.IDLE) {
+                long idleTime = timingWheel.now() - socksClient.getLastActivity();
+                if (idleTime < idleTimeout) {
+                    arm(socksClient, idleTimeout - idleTime);
+                    return;
+                }
+            }
+
+            if (state == SocksClientState.RESOLVING_DEST || state == SocksClientState.CONNECTING_TO_DEST) {
+                logger.warn("Connect timeout to {}", socksClient.getDestAddress());
+                socksClient.abortDestConnection();
+                reader.sendResponse(socksClient, ResponseCode.HOST_UNREACHABLE);
+                arm(socksClient, connectTimeout);
+                return;
+            }
+
+            if (state == SocksClientState.AWAITING_BIND_CONN) {
+                logger.warn("No inbound connection for bind request");
+                socksClient.closeBindChannel();
+                reader.sendResponse(socksClient, ResponseCode.TTL_EXPIRED);
+                arm(socksClient, connectTimeout);
+                return;
+            }
+
+            logger.debug("Closing client in state {} by timeout", state);
+            socksClient.close();
+        } catch (IOException e) {
+            logger.warn("Cannot close client: {}", e.getMessage());
+        }
+    }
+}
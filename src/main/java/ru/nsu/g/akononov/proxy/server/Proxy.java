@@ -2,82 +2,120 @@ package ru.nsu.g.akononov.proxy.server;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xbill.DNS.SimpleResolver;
-import ru.nsu.g.akononov.proxy.channelAttacments.ChannelAttachment;
-import ru.nsu.g.akononov.proxy.channelAttacments.ChannelRole;
-import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
-import ru.nsu.g.akononov.proxy.dnsResolver.DnsResolver;
-import ru.nsu.g.akononov.proxy.messages.connectionMessages.AddressType;
-import ru.nsu.g.akononov.proxy.messages.connectionMessages.ConnectionMsg;
-import ru.nsu.g.akononov.proxy.messages.connectionMessages.ResponseCode;
-import ru.nsu.g.akononov.proxy.channelClient.SocksClientState;
-import ru.nsu.g.akononov.proxy.channelReader.ChannelReader;
-import ru.nsu.g.akononov.proxy.channelWriter.ChannelWriter;
+import ru.nsu.g.akononov.proxy.accessLog.AccessLog;
+import ru.nsu.g.akononov.proxy.bufferPool.BufferPool;
+import ru.nsu.g.akononov.proxy.bufferPool.MemoryBudget;
+import ru.nsu.g.akononov.proxy.circuitBreaker.BreakerState;
+import ru.nsu.g.akononov.proxy.circuitBreaker.CircuitBreakers;
+import ru.nsu.g.akononov.proxy.dnsResolver.DnsCache;
+import ru.nsu.g.akononov.proxy.metrics.MetricsServer;
+import ru.nsu.g.akononov.proxy.metrics.MetricsSource;
+import ru.nsu.g.akononov.proxy.metrics.PrometheusWriter;
+import ru.nsu.g.akononov.proxy.metrics.ProxyMetrics;
+import ru.nsu.g.akononov.proxy.rateLimiter.RateLimiter;
+import ru.nsu.g.akononov.proxy.timer.TimingWheel;
+import ru.nsu.g.akononov.proxy.upstreamPool.UpstreamPool;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.SocketAddress;
-import java.net.UnknownHostException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import static java.nio.channels.SelectionKey.*;
 
-public class Proxy implements Runnable {
+public class Proxy implements ProxyEngine, MetricsSource, AdmissionListener {
     private static final Logger logger = LoggerFactory.getLogger(Proxy.class.getSimpleName());
 
-    private static final String GOOGLE_DNS_ADDR = "8.8.8.8";
-    private static final int GOOGLE_DNS_PORT = 53;
-
-    private static final int BACKLOG = 10;
     private static final byte SOCKS_VERSION = 0x05;
+    private static final long ACCEPT_RETRY_DELAY = 100;
 
+    private final ProxyConfig config;
     private final int proxyPort;
-    private DnsResolver dnsResolver;
-
-    private ChannelReader reader;
-    private ChannelWriter writer;
-
-    public Proxy(int port) {
-        try {
-            SimpleResolver simpleResolver = new SimpleResolver(GOOGLE_DNS_ADDR);
-            simpleResolver.setPort(GOOGLE_DNS_PORT);
-
-            this.proxyPort = port;
-        } catch (UnknownHostException e) {
-            throw new ExceptionInInitializerError();
-        }
+    private final int reactorsCount;
+
+    private final DnsCache dnsCache;
+    private final MemoryBudget memoryBudget;
+    private final ProxyMetrics metrics = new ProxyMetrics();
+    private final MetricsServer metricsServer;
+    private final AccessLog accessLog;
+    private final RateLimiter rateLimiter;
+    private final AdmissionControl admissionControl;
+    private final CircuitBreakers circuitBreakers;
+    private final int acceptBatch;
+
+    private final AtomicBoolean acceptPaused = new AtomicBoolean();
+    private final LongAdder acceptPauses = new LongAdder();
+    private SelectionKey acceptKey;
+    private long acceptRetryAt = 0;
+
+    private Reactor[] reactors;
+    private int nextReactor = 0;
+
+    public Proxy(ProxyConfig config) {
+        this.config = config;
+        this.proxyPort = config.getProxyPort();
+        this.reactorsCount = config.getReactorsCount();
+        this.dnsCache = new DnsCache(config.getDnsCacheSize(), config.getDnsNegativeTtlMs(), config.getDnsStaleTtlMs());
+        this.memoryBudget = new MemoryBudget(config.getBufferMemoryLimit());
+        this.accessLog = new AccessLog(config.getAccessLogQueueSize(), config.getAccessLogSampleRate());
+        this.rateLimiter = new RateLimiter(config.getGlobalRate(), config.getPerClientRate(),
+                config.getPerDestinationRate(), config.getRateBurstMs());
+        this.admissionControl = new AdmissionControl(config.getMaxClients(), config.getMaxClientsPerIp());
+        this.circuitBreakers = new CircuitBreakers(config.getBreakerFailures(), config.getBreakerBackoffMs(),
+                config.getBreakerMaxBackoffMs());
+        this.acceptBatch = config.getAcceptBatch();
+        this.metricsServer = new MetricsServer(this, config.getMetricsTimeoutMs());
+        admissionControl.setListener(this);
     }
 
     @Override
     public void run() {
+        Thread[] reactorThreads = new Thread[reactorsCount];
+
         try (ServerSocketChannel serverSocket = ServerSocketChannel.open();
              Selector selector = Selector.open()) {
 
-            dnsResolver = new DnsResolver(selector, new InetSocketAddress(GOOGLE_DNS_ADDR, GOOGLE_DNS_PORT));
-
-            reader = new ChannelReader(SOCKS_VERSION, proxyPort, dnsResolver);
-            writer = new ChannelWriter(dnsResolver);
+            accessLog.start();
+            reactors = new Reactor[reactorsCount];
+            for (int i = 0; i < reactorsCount; ++i) {
+                reactors[i] = new Reactor(config, SOCKS_VERSION, dnsCache, memoryBudget, metrics, accessLog, rateLimiter,
+                        admissionControl, circuitBreakers);
+                reactorThreads[i] = new Thread(reactors[i], "reactor-" + i);
+                reactorThreads[i].start();
+            }
 
-            logger.info("Waiting incoming connections on port {} ", proxyPort);
+            logger.info("Waiting incoming connections on port {} with {} reactors", proxyPort, reactorsCount);
 
-            serverSocket.bind(new InetSocketAddress(proxyPort), BACKLOG);
+            serverSocket.bind(new InetSocketAddress(proxyPort), config.getBacklog());
             serverSocket.configureBlocking(false);
 
-            serverSocket.register(selector, OP_ACCEPT);
+            acceptKey = serverSocket.register(selector, OP_ACCEPT);
+            if (config.getMetricsPort() != 0) {
+                metricsServer.register(selector, config.getMetricsAddress());
+            }
 
-            while (true) {
-                selector.select();
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select(getSelectTimeout());
+                retryAcceptIfDue();
+                metricsServer.closeExpired(TimingWheel.currentTime());
                 Set<SelectionKey> selectedKeys = selector.selectedKeys();
                 processSelectedKeys(selectedKeys);
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.err.println(e.getMessage());
+        } finally {
+            for (Thread reactorThread : reactorThreads) {
+                if (reactorThread != null) {
+                    reactorThread.interrupt();
+                }
+            }
         }
     }
 
@@ -86,66 +124,205 @@ public class Proxy implements Runnable {
         while (iter.hasNext()) {
             SelectionKey key = iter.next();
 
-            if (key.isValid() && key.isAcceptable()) {
-                accept((ServerSocketChannel)key.channel(), key.selector());
+            if (metricsServer.owns(key)) {
+                metricsServer.process(key);
+            } else if (key.isValid() && key.isAcceptable()) {
+                accept((ServerSocketChannel) key.channel());
             }
-            if (key.isValid() && key.isConnectable()) {
-                connect(key);
+
+            iter.remove();
+        }
+    }
+
+    private void accept(ServerSocketChannel serverSocketChannel) {
+        for (int i = 0; i < acceptBatch; ++i) {
+            if (!admissionControl.hasCapacity()) {
+                pauseAccept();
+                return;
             }
-            if (key.isValid() && key.isReadable()) {
-                reader.read(key);
+
+            SocketChannel clientSocketChannel;
+            try {
+                clientSocketChannel = serverSocketChannel.accept();
+            } catch (IOException e) {
+                logger.warn("Cannot accept: {}", e.getMessage());
+                pauseAcceptFor(ACCEPT_RETRY_DELAY);
+                return;
             }
-            if (key.isValid() && key.isWritable()) {
-                writer.write(key);
+            if (clientSocketChannel == null) {
+                return;
             }
 
-            iter.remove();
+            admit(clientSocketChannel);
         }
     }
 
-    private void accept(ServerSocketChannel serverSocketChannel, Selector selector) throws IOException {
-        SocketChannel clientSocketChannel = serverSocketChannel.accept();
+    private void admit(SocketChannel clientSocketChannel) {
+        try {
+            InetSocketAddress clientAddress = (InetSocketAddress) clientSocketChannel.getRemoteAddress();
+            if (!admissionControl.tryAdmit(clientAddress.getAddress())) {
+                logger.debug("Incoming connection from {} was REJECTED", clientAddress);
+                clientSocketChannel.close();
+                return;
+            }
+            logger.debug("Incoming connection from {} was ACCEPTED", clientAddress);
+        } catch (IOException e) {
+            logger.debug("Accepted connection failed: {}", e.getMessage());
+            closeQuietly(clientSocketChannel);
+            return;
+        }
+
+        Reactor reactor = reactors[nextReactor];
+        nextReactor = (nextReactor + 1) % reactors.length;
+        reactor.register(clientSocketChannel);
+    }
 
-        clientSocketChannel.configureBlocking(false);
-        SelectionKey clientSelectionKey = clientSocketChannel.register(selector, OP_READ);
+    private void pauseAccept() {
+        acceptKey.interestOps(0);
+        acceptPaused.set(true);
+        acceptPauses.increment();
+        if (admissionControl.hasCapacity()) {
+            resumeAccept();
+        }
+    }
 
-        SocksClient socksClient = new SocksClient(clientSocketChannel, clientSelectionKey);
-        clientSelectionKey.attach(new ChannelAttachment(socksClient, ChannelRole.CLIENT));
+    private void pauseAcceptFor(long delay) {
+        acceptKey.interestOps(0);
+        acceptPaused.set(true);
+        acceptPauses.increment();
+        acceptRetryAt = TimingWheel.currentTime() + delay;
+    }
 
-        logger.info("Incoming connection from {} was ACCEPTED", clientSocketChannel.getRemoteAddress());
+    private void retryAcceptIfDue() {
+        if (acceptRetryAt != 0 && TimingWheel.currentTime() >= acceptRetryAt) {
+            acceptRetryAt = 0;
+            resumeAccept();
+        }
     }
 
-    private void connect(SelectionKey selectionKey) throws IOException {
-        SocketChannel destSocketChannel = (SocketChannel) selectionKey.channel();
-        ChannelAttachment socketChannelRef = (ChannelAttachment) selectionKey.attachment();
-        SocksClient socksClient = socketChannelRef.getSocksClient();
+    private long getSelectTimeout() {
+        long deadline = acceptRetryAt;
+        long metricsDeadline = metricsServer.getNextDeadline();
+        if (deadline == 0 || metricsDeadline != 0 && metricsDeadline < deadline) {
+            deadline = metricsDeadline;
+        }
+        if (deadline == 0) {
+            return 0;
+        }
+        return Math.max(1, deadline - TimingWheel.currentTime());
+    }
 
-        SocketAddress addr = destSocketChannel.getRemoteAddress();
+    private void resumeAccept() {
+        if (acceptPaused.compareAndSet(true, false)) {
+            acceptKey.interestOps(OP_ACCEPT);
+            acceptKey.selector().wakeup();
+        }
+    }
 
-        ConnectionMsg connection = new ConnectionMsg(SOCKS_VERSION,
-                AddressType.IPV4_ADDRESS,
-                socksClient.getDestAddress().getAddress(),
-                socksClient.getDestAddress().getPort());
+    @Override
+    public void onClientReleased() {
+        if (acceptPaused.get() && admissionControl.hasCapacity()) {
+            resumeAccept();
+        }
+    }
 
+    private static void closeQuietly(SocketChannel channel) {
         try {
-            if (!destSocketChannel.finishConnect()) {
-                throw new RuntimeException();
-            }
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Cannot close channel: {}", e.getMessage());
+        }
+    }
 
-            selectionKey.interestOps(0);
-            socksClient.getClientSelectionKey().interestOps(OP_WRITE);
-            socksClient.setSocksClientState(SocksClientState.SEND_CONN_RESP);
-            socksClient.getDestToClientBuffer().put(connection.getResponseBytes(ResponseCode.REQUEST_GRANTED));
+    @Override
+    public void writeMetrics(PrometheusWriter writer) {
+        metrics.writeTo(writer);
+
+        long poolHits = 0;
+        long poolMisses = 0;
+        long poolStale = 0;
+        long poolIdle = 0;
+        long udpDropped = 0;
+        long interestUpdates = 0;
+        for (Reactor reactor : reactors) {
+            UpstreamPool upstreamPool = reactor.getUpstreamPool();
+            poolHits += upstreamPool.getHits();
+            poolMisses += upstreamPool.getMisses();
+            poolStale += upstreamPool.getStaleCount();
+            poolIdle += upstreamPool.getIdleCount();
+            udpDropped += reactor.getUdpRelay().getDroppedCount();
+            interestUpdates += reactor.getRelayStats().getInterestUpdates();
+        }
+        writer.counter("socks_upstream_pool_hits_total", "CONNECTs served from the upstream pool", poolHits);
+        writer.counter("socks_upstream_pool_misses_total", "CONNECTs to pooled targets with an empty pool", poolMisses);
+        writer.counter("socks_upstream_pool_stale_total", "Pooled connections found stale", poolStale);
+        writer.gauge("socks_upstream_pool_idle", "Idle pooled connections", poolIdle);
+        writer.counter("socks_udp_dropped_total", "Dropped UDP datagrams", udpDropped);
+        writer.counter("socks_interest_updates_total", "SelectionKey interest set updates", interestUpdates);
+        writer.gauge("socks_admitted_clients", "Clients admitted and not yet closed", admissionControl.getClientsCount());
+        writer.counter("socks_admission_rejected_total", "Connections rejected by the per-IP cap",
+                admissionControl.getRejectedCount());
+        writer.counter("socks_accept_pauses_total", "Times accepting was paused", acceptPauses.sum());
+        writer.counter("socks_access_log_dropped_total", "Access log records dropped on a full queue",
+                accessLog.getDroppedCount());
+        writer.header("socks_circuit_breakers", "Tracked destinations by circuit state", "gauge");
+        for (BreakerState state : BreakerState.values()) {
+            writer.sample("socks_circuit_breakers", "state", state.name(), circuitBreakers.getCount(state));
+        }
+        writer.counter("socks_circuit_breaker_trips_total", "Times a destination circuit was opened",
+                circuitBreakers.getTripsCount());
+        writer.counter("socks_circuit_breaker_rejected_total", "CONNECTs answered by an open circuit",
+                circuitBreakers.getRejectedCount());
+        writer.counter("socks_dns_cache_hits_total", "DNS cache hits", dnsCache.getHits());
+        writer.counter("socks_dns_cache_misses_total", "DNS cache misses", dnsCache.getMisses());
+        writer.counter("socks_dns_cache_evictions_total", "DNS cache entries evicted by the size limit",
+                dnsCache.getEvictions());
+        writer.gauge("socks_buffer_memory_bytes", "Memory allocated by buffer pools", memoryBudget.getAllocated());
+        writeBufferPoolMetrics(writer);
+    }
 
-            logger.trace("Connected to {}", destSocketChannel.getRemoteAddress());
+    private void writeBufferPoolMetrics(PrometheusWriter writer) {
+        BufferPool bufferPool = reactors[0].getBufferPool();
+        int classesCount = bufferPool.getClassesCount();
+
+        long[] chunksInUse = new long[classesCount];
+        long[] freeChunks = new long[classesCount];
+        long[] slabsCount = new long[classesCount];
+        for (Reactor reactor : reactors) {
+            BufferPool reactorPool = reactor.getBufferPool();
+            for (int i = 0; i < classesCount; ++i) {
+                chunksInUse[i] += reactorPool.getChunksInUse(i);
+                freeChunks[i] += reactorPool.getFreeChunks(i);
+                slabsCount[i] += reactorPool.getSlabsCount(i);
+            }
+        }
 
-        } catch (IOException e) {
-            socksClient.getDestToClientBuffer().put(connection.getResponseBytes(ResponseCode.HOST_UNREACHABLE));
-            socksClient.setCloseUponSending(true);
-            socksClient.getClientSelectionKey().interestOps(OP_WRITE);
-            socksClient.setSocksClientState(SocksClientState.SEND_CONN_RESP);
+        writeBufferPoolGauge(writer, "socks_buffer_chunks_in_use", "Buffer chunks in use by chunk size", bufferPool, chunksInUse);
+        writeBufferPoolGauge(writer, "socks_buffer_chunks_free", "Free buffer chunks by chunk size", bufferPool, freeChunks);
+        writeBufferPoolGauge(writer, "socks_buffer_slabs", "Allocated buffer slabs by chunk size", bufferPool, slabsCount);
+    }
 
-            logger.warn("Cannot connect to {}", addr);
+    private static void writeBufferPoolGauge(PrometheusWriter writer, String name, String help, BufferPool bufferPool,
+                                             long[] values) {
+        writer.header(name, help, "gauge");
+        for (int i = 0; i < values.length; ++i) {
+            writer.sample(name, "size", Integer.toString(bufferPool.getChunkSize(i)), values[i]);
         }
     }
+
+    public ProxyMetrics getMetrics() {
+        return metrics;
+    }
+
+    public DnsCache getDnsCache() {
+        return dnsCache;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public Reactor[] getReactors() {
+        return reactors;
+    }
 }
@@ -0,0 +1,465 @@
+package ru.nsu.g.akononov.proxy.server;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+public class ProxyConfig {
+    private static final String ENGINE_PROPERTY = "socks.engine";
+    private static final String REACTORS_PROPERTY = "socks.reactors";
+    private static final String BACKLOG_PROPERTY = "socks.backlog";
+    private static final String ACCEPT_BATCH_PROPERTY = "socks.acceptBatch";
+    private static final String MAX_CLIENTS_PROPERTY = "socks.maxClients";
+    private static final String MAX_CLIENTS_PER_IP_PROPERTY = "socks.maxClientsPerIp";
+    private static final String RELAY_MODE_PROPERTY = "socks.relay.mode";
+    private static final String READ_BUDGET_PROPERTY = "socks.loop.readBudget";
+    private static final String RELAY_SEGMENTS_PROPERTY = "socks.relay.segments";
+    private static final String UDP_BATCH_SIZE_PROPERTY = "socks.udp.batchSize";
+    private static final String TIMER_TICK_PROPERTY = "socks.timer.tickMs";
+    private static final String TIMER_WHEEL_SIZE_PROPERTY = "socks.timer.wheelSize";
+    private static final String GREETING_TIMEOUT_PROPERTY = "socks.timeout.greetingMs";
+    private static final String REQUEST_TIMEOUT_PROPERTY = "socks.timeout.requestMs";
+    private static final String CONNECT_TIMEOUT_PROPERTY = "socks.timeout.connectMs";
+    private static final String CONNECT_ATTEMPT_DELAY_PROPERTY = "socks.connect.attemptDelayMs";
+    private static final String BIND_TIMEOUT_PROPERTY = "socks.timeout.bindMs";
+    private static final String IDLE_TIMEOUT_PROPERTY = "socks.timeout.idleMs";
+    private static final String BUFFER_CHUNK_SIZE_PROPERTY = "socks.buffer.chunkSize";
+    private static final String BUFFER_MAX_CHUNK_SIZE_PROPERTY = "socks.buffer.maxChunkSize";
+    private static final String BUFFER_CHUNKS_PER_SLAB_PROPERTY = "socks.buffer.chunksPerSlab";
+    private static final String BUFFER_MEMORY_LIMIT_PROPERTY = "socks.buffer.memoryLimit";
+    private static final String DNS_SERVER_PROPERTY = "socks.dns.server";
+    private static final String DNS_RETRANSMIT_PROPERTY = "socks.dns.retransmitMs";
+    private static final String DNS_TIMEOUT_PROPERTY = "socks.dns.timeoutMs";
+    private static final String DNS_CACHE_SIZE_PROPERTY = "socks.dns.cache.size";
+    private static final String DNS_NEGATIVE_TTL_PROPERTY = "socks.dns.cache.negativeTtlMs";
+    private static final String DNS_STALE_TTL_PROPERTY = "socks.dns.cache.staleTtlMs";
+    private static final String ACCESS_LOG_SAMPLE_RATE_PROPERTY = "socks.accessLog.sampleRate";
+    private static final String ACCESS_LOG_QUEUE_SIZE_PROPERTY = "socks.accessLog.queueSize";
+    private static final String RATE_GLOBAL_PROPERTY = "socks.rate.global";
+    private static final String RATE_PER_CLIENT_PROPERTY = "socks.rate.perClient";
+    private static final String RATE_PER_DESTINATION_PROPERTY = "socks.rate.perDestination";
+    private static final String RATE_BURST_PROPERTY = "socks.rate.burstMs";
+    private static final String BREAKER_FAILURES_PROPERTY = "socks.breaker.failures";
+    private static final String BREAKER_BACKOFF_PROPERTY = "socks.breaker.backoffMs";
+    private static final String BREAKER_MAX_BACKOFF_PROPERTY = "socks.breaker.maxBackoffMs";
+    private static final String METRICS_PORT_PROPERTY = "socks.metrics.port";
+    private static final String METRICS_BIND_PROPERTY = "socks.metrics.bind";
+    private static final String METRICS_TIMEOUT_PROPERTY = "socks.metrics.timeoutMs";
+    private static final String UPSTREAM_TARGETS_PROPERTY = "socks.upstream.targets";
+    private static final String UPSTREAM_POOL_SIZE_PROPERTY = "socks.upstream.poolSize";
+    private static final String UPSTREAM_MAX_IDLE_PROPERTY = "socks.upstream.maxIdleMs";
+
+    private static final String GOOGLE_DNS_ADDR = "8.8.8.8";
+    private static final int DNS_PORT = 53;
+    private static final String LOOPBACK_ADDR = "127.0.0.1";
+
+    private final int proxyPort;
+    private final EngineMode engineMode;
+    private final int reactorsCount;
+    private final int backlog;
+    private final int acceptBatch;
+    private final int maxClients;
+    private final int maxClientsPerIp;
+    private final RelayMode relayMode;
+    private final int relaySegments;
+    private final int readBudget;
+    private final int udpBatchSize;
+    private final int timerTickMs;
+    private final int timerWheelSize;
+    private final int greetingTimeoutMs;
+    private final int requestTimeoutMs;
+    private final int connectTimeoutMs;
+    private final int connectAttemptDelayMs;
+    private final int bindTimeoutMs;
+    private final int idleTimeoutMs;
+    private final int bufferChunkSize;
+    private final int bufferMaxChunkSize;
+    private final int bufferChunksPerSlab;
+    private final long bufferMemoryLimit;
+    private final InetSocketAddress dnsServer;
+    private final int dnsRetransmitMs;
+    private final int dnsTimeoutMs;
+    private final int dnsCacheSize;
+    private final int dnsNegativeTtlMs;
+    private final int dnsStaleTtlMs;
+    private final int accessLogSampleRate;
+    private final int accessLogQueueSize;
+    private final long globalRate;
+    private final long perClientRate;
+    private final long perDestinationRate;
+    private final int rateBurstMs;
+    private final int breakerFailures;
+    private final int breakerBackoffMs;
+    private final int breakerMaxBackoffMs;
+    private final int metricsPort;
+    private final String metricsBind;
+    private final int metricsTimeoutMs;
+    private final List<InetSocketAddress> upstreamTargets;
+    private final int upstreamPoolSize;
+    private final int upstreamMaxIdleMs;
+
+    public ProxyConfig(int proxyPort, Properties properties) {
+        this.proxyPort = proxyPort;
+        this.engineMode = getEnum(properties, ENGINE_PROPERTY, EngineMode.NIO);
+        this.reactorsCount = getInt(properties, REACTORS_PROPERTY, Runtime.getRuntime().availableProcessors());
+        this.backlog = getInt(properties, BACKLOG_PROPERTY, 128);
+        this.acceptBatch = getInt(properties, ACCEPT_BATCH_PROPERTY, 64);
+        this.maxClients = getInt(properties, MAX_CLIENTS_PROPERTY, 0);
+        this.maxClientsPerIp = getInt(properties, MAX_CLIENTS_PER_IP_PROPERTY, 0);
+        this.relayMode = getEnum(properties, RELAY_MODE_PROPERTY, RelayMode.BUFFERED);
+        this.relaySegments = getInt(properties, RELAY_SEGMENTS_PROPERTY, 4);
+        this.readBudget = getInt(properties, READ_BUDGET_PROPERTY, 64 * 1024);
+        this.udpBatchSize = getInt(properties, UDP_BATCH_SIZE_PROPERTY, 32);
+        this.timerTickMs = getInt(properties, TIMER_TICK_PROPERTY, 100);
+        this.timerWheelSize = getInt(properties, TIMER_WHEEL_SIZE_PROPERTY, 1024);
+        this.greetingTimeoutMs = getInt(properties, GREETING_TIMEOUT_PROPERTY, 10000);
+        this.requestTimeoutMs = getInt(properties, REQUEST_TIMEOUT_PROPERTY, 10000);
+        this.connectTimeoutMs = getInt(properties, CONNECT_TIMEOUT_PROPERTY, 15000);
+        this.connectAttemptDelayMs = getInt(properties, CONNECT_ATTEMPT_DELAY_PROPERTY, 250);
+        this.bindTimeoutMs = getInt(properties, BIND_TIMEOUT_PROPERTY, 120000);
+        this.idleTimeoutMs = getInt(properties, IDLE_TIMEOUT_PROPERTY, 300000);
+        this.bufferChunkSize = getInt(properties, BUFFER_CHUNK_SIZE_PROPERTY, 1024);
+        this.bufferMaxChunkSize = getInt(properties, BUFFER_MAX_CHUNK_SIZE_PROPERTY, 256 * 1024);
+        this.bufferChunksPerSlab = getInt(properties, BUFFER_CHUNKS_PER_SLAB_PROPERTY, 256);
+        this.bufferMemoryLimit = getLong(properties, BUFFER_MEMORY_LIMIT_PROPERTY, 256L * 1024 * 1024);
+        this.dnsServer = getAddress(properties, DNS_SERVER_PROPERTY, GOOGLE_DNS_ADDR, DNS_PORT);
+        this.dnsRetransmitMs = getInt(properties, DNS_RETRANSMIT_PROPERTY, 1000);
+        this.dnsTimeoutMs = getInt(properties, DNS_TIMEOUT_PROPERTY, 5000);
+        this.dnsCacheSize = getInt(properties, DNS_CACHE_SIZE_PROPERTY, 10000);
+        this.dnsNegativeTtlMs = getInt(properties, DNS_NEGATIVE_TTL_PROPERTY, 5000);
+        this.dnsStaleTtlMs = getInt(properties, DNS_STALE_TTL_PROPERTY, 30000);
+        this.accessLogSampleRate = getInt(properties, ACCESS_LOG_SAMPLE_RATE_PROPERTY, 1);
+        this.accessLogQueueSize = getInt(properties, ACCESS_LOG_QUEUE_SIZE_PROPERTY, 8192);
+        this.globalRate = getLong(properties, RATE_GLOBAL_PROPERTY, 0);
+        this.perClientRate = getLong(properties, RATE_PER_CLIENT_PROPERTY, 0);
+        this.perDestinationRate = getLong(properties, RATE_PER_DESTINATION_PROPERTY, 0);
+        this.rateBurstMs = getInt(properties, RATE_BURST_PROPERTY, 200);
+        this.breakerFailures = getInt(properties, BREAKER_FAILURES_PROPERTY, 0);
+        this.breakerBackoffMs = getInt(properties, BREAKER_BACKOFF_PROPERTY, 1000);
+        this.breakerMaxBackoffMs = getInt(properties, BREAKER_MAX_BACKOFF_PROPERTY, 60000);
+        this.metricsPort = getInt(properties, METRICS_PORT_PROPERTY, 0);
+        this.metricsBind = properties.getProperty(METRICS_BIND_PROPERTY, LOOPBACK_ADDR).trim();
+        this.metricsTimeoutMs = getInt(properties, METRICS_TIMEOUT_PROPERTY, 5000);
+        this.upstreamTargets = getAddresses(properties, UPSTREAM_TARGETS_PROPERTY);
+        this.upstreamPoolSize = getInt(properties, UPSTREAM_POOL_SIZE_PROPERTY, 4);
+        this.upstreamMaxIdleMs = getInt(properties, UPSTREAM_MAX_IDLE_PROPERTY, 60000);
+
+        if (reactorsCount < 1) {
+            throw new IllegalArgumentException(REACTORS_PROPERTY + " must be positive");
+        }
+        if (backlog < 1 || acceptBatch < 1) {
+            throw new IllegalArgumentException("Backlog and accept batch must be positive");
+        }
+        if (maxClients < 0 || maxClientsPerIp < 0) {
+            throw new IllegalArgumentException("Client limits must not be negative");
+        }
+        if (relaySegments < 1) {
+            throw new IllegalArgumentException(RELAY_SEGMENTS_PROPERTY + " must be positive");
+        }
+        if (readBudget < 1) {
+            throw new IllegalArgumentException(READ_BUDGET_PROPERTY + " must be positive");
+        }
+        if (udpBatchSize < 1) {
+            throw new IllegalArgumentException(UDP_BATCH_SIZE_PROPERTY + " must be positive");
+        }
+        if (timerTickMs < 1 || Integer.bitCount(timerWheelSize) != 1) {
+            throw new IllegalArgumentException("Timer tick must be positive and wheel size a power of two");
+        }
+        if (connectAttemptDelayMs < 1) {
+            throw new IllegalArgumentException(CONNECT_ATTEMPT_DELAY_PROPERTY + " must be positive");
+        }
+        if (greetingTimeoutMs < 0 || requestTimeoutMs < 0 || connectTimeoutMs < 0 || bindTimeoutMs < 0
+                || idleTimeoutMs < 0) {
+            throw new IllegalArgumentException("Timeouts must not be negative");
+        }
+        if (bufferChunkSize < 1 || bufferChunksPerSlab < 1 || bufferMaxChunkSize < bufferChunkSize) {
+            throw new IllegalArgumentException("Bad buffer chunk sizes");
+        }
+        if (dnsRetransmitMs < 1 || dnsTimeoutMs < 1) {
+            throw new IllegalArgumentException("DNS timeouts must be positive");
+        }
+        if (dnsCacheSize < 0 || dnsNegativeTtlMs < 0 || dnsStaleTtlMs < 0) {
+            throw new IllegalArgumentException("DNS cache settings must not be negative");
+        }
+        if (accessLogSampleRate < 0 || Integer.bitCount(accessLogQueueSize) != 1) {
+            throw new IllegalArgumentException("Access log sample rate must not be negative and queue size must be a power of two");
+        }
+        if (globalRate < 0 || perClientRate < 0 || perDestinationRate < 0) {
+            throw new IllegalArgumentException("Rate limits must not be negative");
+        }
+        if (rateBurstMs < 1) {
+            throw new IllegalArgumentException(RATE_BURST_PROPERTY + " must be positive");
+        }
+        if (breakerFailures < 0) {
+            throw new IllegalArgumentException(BREAKER_FAILURES_PROPERTY + " must not be negative");
+        }
+        if (breakerBackoffMs < 1 || breakerMaxBackoffMs < breakerBackoffMs) {
+            throw new IllegalArgumentException("Breaker backoff must be positive and not above the maximum backoff");
+        }
+        if (metricsPort < 0 || metricsPort > 0xFFFF) {
+            throw new IllegalArgumentException(METRICS_PORT_PROPERTY + " must be a port number or 0 to disable");
+        }
+        if (metricsTimeoutMs < 1) {
+            throw new IllegalArgumentException(METRICS_TIMEOUT_PROPERTY + " must be positive");
+        }
+        if (upstreamPoolSize < 1 || upstreamMaxIdleMs < 1) {
+            throw new IllegalArgumentException("Upstream pool size and idle time must be positive");
+        }
+        if (engineMode == EngineMode.BLOCKING && (globalRate > 0 || perClientRate > 0 || perDestinationRate > 0
+                || breakerFailures > 0 || !upstreamTargets.isEmpty())) {
+            throw new IllegalArgumentException("Rate limits, " + BREAKER_FAILURES_PROPERTY + " and "
+                    + UPSTREAM_TARGETS_PROPERTY + " are not supported by the " + ENGINE_PROPERTY + "=BLOCKING engine");
+        }
+    }
+
+    private static int getInt(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad value of " + name + ": " + value);
+        }
+    }
+
+    private static long getLong(Properties properties, String name, long defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad value of " + name + ": " + value);
+        }
+    }
+
+    private static <E extends Enum<E>> E getEnum(Properties properties, String name, E defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Bad value of " + name + ": " + value);
+        }
+    }
+
+    private static InetSocketAddress getAddress(Properties properties, String name, String defaultHost, int defaultPort) {
+        String value = properties.getProperty(name, defaultHost).trim();
+        int separator = value.lastIndexOf(':');
+        if (separator < 0) {
+            return new InetSocketAddress(value, defaultPort);
+        }
+        return parseAddress(name, value, separator);
+    }
+
+    private static List<InetSocketAddress> getAddresses(Properties properties, String name) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String value : properties.getProperty(name, "").split(",")) {
+            value = value.trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            int separator = value.lastIndexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Missing port in " + name + ": " + value);
+            }
+            InetSocketAddress address = parseAddress(name, value, separator);
+            if (address.isUnresolved()) {
+                throw new IllegalArgumentException("Cannot resolve " + value + " from " + name);
+            }
+            addresses.add(address);
+        }
+        return addresses;
+    }
+
+    private static InetSocketAddress parseAddress(String name, String value, int separator) {
+        try {
+            return new InetSocketAddress(value.substring(0, separator), Integer.parseInt(value.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad value of " + name + ": " + value);
+        }
+    }
+
+    public int getProxyPort() {
+        return proxyPort;
+    }
+
+    public EngineMode getEngineMode() {
+        return engineMode;
+    }
+
+    public int getReactorsCount() {
+        return reactorsCount;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public int getAcceptBatch() {
+        return acceptBatch;
+    }
+
+    public int getMaxClients() {
+        return maxClients;
+    }
+
+    public int getMaxClientsPerIp() {
+        return maxClientsPerIp;
+    }
+
+    public RelayMode getRelayMode() {
+        return relayMode;
+    }
+
+    public int getRelaySegments() {
+        return relaySegments;
+    }
+
+    public int getReadBudget() {
+        return readBudget;
+    }
+
+    public int getUdpBatchSize() {
+        return udpBatchSize;
+    }
+
+    public int getTimerTickMs() {
+        return timerTickMs;
+    }
+
+    public int getTimerWheelSize() {
+        return timerWheelSize;
+    }
+
+    public int getGreetingTimeoutMs() {
+        return greetingTimeoutMs;
+    }
+
+    public int getRequestTimeoutMs() {
+        return requestTimeoutMs;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public int getConnectAttemptDelayMs() {
+        return connectAttemptDelayMs;
+    }
+
+    public int getBindTimeoutMs() {
+        return bindTimeoutMs;
+    }
+
+    public int getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public int getBufferChunkSize() {
+        return bufferChunkSize;
+    }
+
+    public int getBufferMaxChunkSize() {
+        return bufferMaxChunkSize;
+    }
+
+    public int getBufferChunksPerSlab() {
+        return bufferChunksPerSlab;
+    }
+
+    public long getBufferMemoryLimit() {
+        return bufferMemoryLimit;
+    }
+
+    public InetSocketAddress getDnsServer() {
+        return dnsServer;
+    }
+
+    public int getDnsRetransmitMs() {
+        return dnsRetransmitMs;
+    }
+
+    public int getDnsTimeoutMs() {
+        return dnsTimeoutMs;
+    }
+
+    public int getDnsCacheSize() {
+        return dnsCacheSize;
+    }
+
+    public int getDnsNegativeTtlMs() {
+        return dnsNegativeTtlMs;
+    }
+
+    public int getDnsStaleTtlMs() {
+        return dnsStaleTtlMs;
+    }
+
+    public int getAccessLogSampleRate() {
+        return accessLogSampleRate;
+    }
+
+    public int getAccessLogQueueSize() {
+        return accessLogQueueSize;
+    }
+
+    public long getGlobalRate() {
+        return globalRate;
+    }
+
+    public long getPerClientRate() {
+        return perClientRate;
+    }
+
+    public long getPerDestinationRate() {
+        return perDestinationRate;
+    }
+
+    public int getRateBurstMs() {
+        return rateBurstMs;
+    }
+
+    public int getBreakerFailures() {
+        return breakerFailures;
+    }
+
+    public int getBreakerBackoffMs() {
+        return breakerBackoffMs;
+    }
+
+    public int getBreakerMaxBackoffMs() {
+        return breakerMaxBackoffMs;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public InetSocketAddress getMetricsAddress() {
+        return new InetSocketAddress(metricsBind, metricsPort);
+    }
+
+    public int getMetricsTimeoutMs() {
+        return metricsTimeoutMs;
+    }
+
+    public List<InetSocketAddress> getUpstreamTargets() {
+        return upstreamTargets;
+    }
+
+    public int getUpstreamPoolSize() {
+        return upstreamPoolSize;
+    }
+
+    public int getUpstreamMaxIdleMs() {
+        return upstreamMaxIdleMs;
+    }
+}
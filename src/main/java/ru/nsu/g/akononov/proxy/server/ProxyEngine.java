@@ -0,0 +1,12 @@
+package ru.nsu.g.akononov.proxy.server;
+
+import ru.nsu.g.akononov.proxy.blockingEngine.BlockingProxy;
+
+public interface ProxyEngine extends Runnable {
+    static ProxyEngine create(ProxyConfig config) {
+        if (config.getEngineMode() == EngineMode.BLOCKING) {
+            return new BlockingProxy(config);
+        }
+        return new Proxy(config);
+    }
+}
@@ -0,0 +1,281 @@
+package ru.nsu.g.akononov.proxy.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.nsu.g.akononov.proxy.accessLog.AccessLog;
+import ru.nsu.g.akononov.proxy.bufferPool.BufferPool;
+import ru.nsu.g.akononov.proxy.bufferPool.MemoryBudget;
+import ru.nsu.g.akononov.proxy.channelAttacments.ChannelAttachment;
+import ru.nsu.g.akononov.proxy.channelAttacments.ChannelRole;
+import ru.nsu.g.akononov.proxy.channelClient.RelayBuffer;
+import ru.nsu.g.akononov.proxy.channelClient.RelayStats;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClientListener;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClientState;
+import ru.nsu.g.akononov.proxy.channelReader.ChannelReader;
+import ru.nsu.g.akononov.proxy.channelWriter.ChannelWriter;
+import ru.nsu.g.akononov.proxy.circuitBreaker.CircuitBreakers;
+import ru.nsu.g.akononov.proxy.destConnector.DestConnector;
+import ru.nsu.g.akononov.proxy.dnsResolver.DnsCache;
+import ru.nsu.g.akononov.proxy.dnsResolver.DnsResolver;
+import ru.nsu.g.akononov.proxy.metrics.ProxyMetrics;
+import ru.nsu.g.akononov.proxy.rateLimiter.RateLimiter;
+import ru.nsu.g.akononov.proxy.timer.TimingWheel;
+import ru.nsu.g.akononov.proxy.udpRelay.UdpRelay;
+import ru.nsu.g.akononov.proxy.upstreamPool.UpstreamPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.nio.channels.SelectionKey.*;
+
+public class Reactor implements Runnable, SocksClientListener {
+    private static final Logger logger = LoggerFactory.getLogger(Reactor.class.getSimpleName());
+
+    private final byte socksVersion;
+    private final Selector selector;
+    private final TimingWheel timingWheel;
+
+    private final DnsResolver dnsResolver;
+    private final ChannelReader reader;
+    private final ChannelWriter writer;
+    private final UdpRelay udpRelay;
+    private final DestConnector destConnector;
+    private final UpstreamPool upstreamPool;
+    private final ClientTimeouts clientTimeouts;
+    private final BufferPool bufferPool;
+    private final RelayStats relayStats = new RelayStats();
+    private final ProxyMetrics metrics;
+    private final AccessLog accessLog;
+    private final RateLimiter rateLimiter;
+    private final AdmissionControl admissionControl;
+    private final CircuitBreakers circuitBreakers;
+    private final int relaySegments;
+
+    private final Queue<SocketChannel> acceptedChannels = new ConcurrentLinkedQueue<>();
+    private final List<SocksClient> interestChanges = new ArrayList<>();
+    private List<SelectionKey> continuedReads = new ArrayList<>();
+    private List<SelectionKey> nextContinuedReads = new ArrayList<>();
+    private long loopCount = 0;
+
+    public Reactor(ProxyConfig config, byte socksVersion, DnsCache dnsCache, MemoryBudget memoryBudget,
+                   ProxyMetrics metrics, AccessLog accessLog,
+                   RateLimiter rateLimiter, AdmissionControl admissionControl,
+                   CircuitBreakers circuitBreakers) throws IOException {
+        this.socksVersion = socksVersion;
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+        this.rateLimiter = rateLimiter;
+        this.admissionControl = admissionControl;
+        this.circuitBreakers = circuitBreakers;
+        this.selector = Selector.open();
+        this.timingWheel = new TimingWheel(config.getTimerTickMs(), config.getTimerWheelSize());
+        this.bufferPool = new BufferPool(config.getBufferChunkSize(), config.getBufferMaxChunkSize(),
+                config.getBufferChunksPerSlab(), memoryBudget);
+        this.relaySegments = config.getRelaySegments();
+
+        dnsResolver = new DnsResolver(selector, config.getDnsServer(), dnsCache, timingWheel,
+                config.getDnsRetransmitMs(), config.getDnsTimeoutMs(), metrics.getDnsLatency());
+        udpRelay = new UdpRelay(selector, dnsResolver, timingWheel, config.getUdpBatchSize());
+        destConnector = new DestConnector(selector, timingWheel, config.getConnectAttemptDelayMs(),
+                metrics.getConnectLatency());
+        upstreamPool = new UpstreamPool(selector, timingWheel, config.getUpstreamTargets(),
+                config.getUpstreamPoolSize(), config.getUpstreamMaxIdleMs());
+        reader = new ChannelReader(socksVersion, dnsResolver, destConnector,
+                config.getRelayMode(), timingWheel, udpRelay, upstreamPool, metrics,
+                rateLimiter, circuitBreakers, config.getReadBudget());
+        writer = new ChannelWriter(dnsResolver);
+        dnsResolver.setListener(reader);
+        destConnector.setListener(reader);
+        clientTimeouts = new ClientTimeouts(config, timingWheel, reader);
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public UdpRelay getUdpRelay() {
+        return udpRelay;
+    }
+
+    public UpstreamPool getUpstreamPool() {
+        return upstreamPool;
+    }
+
+    public RelayStats getRelayStats() {
+        return relayStats;
+    }
+
+    public void register(SocketChannel clientSocketChannel) {
+        acceptedChannels.add(clientSocketChannel);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try (Selector selector = this.selector) {
+            upstreamPool.start();
+            while (!Thread.currentThread().isInterrupted()) {
+                if (continuedReads.isEmpty()) {
+                    selector.select(timingWheel.getSelectTimeout());
+                } else {
+                    selector.selectNow();
+                }
+                long wakeupTime = System.nanoTime();
+                ++loopCount;
+                timingWheel.advance();
+                registerAcceptedChannels();
+
+                Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                metrics.getKeysPerSelect().record(selectedKeys.size());
+                processSelectedKeys(selectedKeys);
+                continueReads();
+                flushInterestChanges();
+                metrics.getLoopTime().recordNanos(wakeupTime);
+            }
+        } catch (IOException e) {
+            logger.error("Reactor stopped", e);
+        }
+    }
+
+    private void registerAcceptedChannels() {
+        SocketChannel clientSocketChannel;
+        while ((clientSocketChannel = acceptedChannels.poll()) != null) {
+            InetSocketAddress clientAddress = null;
+            try {
+                clientAddress = (InetSocketAddress) clientSocketChannel.getRemoteAddress();
+                registerAcceptedChannel(clientSocketChannel, clientAddress);
+            } catch (IOException e) {
+                logger.debug("Cannot register accepted channel: {}", e.toString());
+                try {
+                    clientSocketChannel.close();
+                } catch (IOException closeException) {
+                    logger.warn("Cannot close channel: {}", closeException.getMessage());
+                }
+                admissionControl.release(clientAddress == null ? null : clientAddress.getAddress());
+            }
+        }
+    }
+
+    private void registerAcceptedChannel(SocketChannel clientSocketChannel, InetSocketAddress clientAddress) throws IOException {
+        clientSocketChannel.configureBlocking(false);
+        SelectionKey clientSelectionKey = clientSocketChannel.register(selector, OP_READ);
+
+        SocksClient socksClient = new SocksClient(clientSocketChannel, clientSelectionKey,
+                new RelayBuffer(bufferPool, relayStats, relaySegments),
+                new RelayBuffer(bufferPool, relayStats, relaySegments),
+                this);
+        socksClient.setClientAddress(clientAddress);
+        clientSelectionKey.attach(new ChannelAttachment(socksClient, ChannelRole.CLIENT));
+        socksClient.setSocksClientState(SocksClientState.RECV_INIT_GREETING);
+    }
+
+    @Override
+    public void onStateChanged(SocksClient socksClient, SocksClientState from, SocksClientState to) {
+        clientTimeouts.onStateChanged(socksClient, from, to);
+        metrics.onStateChanged(socksClient, from, to);
+        rateLimiter.onStateChanged(socksClient, from, to);
+        circuitBreakers.onStateChanged(socksClient, from, to);
+        if (to == SocksClientState.CLOSED) {
+            accessLog.onClosed(socksClient);
+            admissionControl.release(socksClient.getClientAddress().getAddress());
+        }
+    }
+
+    @Override
+    public void onInterestChanged(SocksClient socksClient) {
+        interestChanges.add(socksClient);
+    }
+
+    private void flushInterestChanges() {
+        for (SocksClient socksClient : interestChanges) {
+            relayStats.addInterestUpdates(socksClient.flushInterest());
+        }
+        interestChanges.clear();
+    }
+
+    private void processSelectedKeys(Set<SelectionKey> selectedKeys) throws IOException {
+        Iterator<SelectionKey> iter = selectedKeys.iterator();
+        while (iter.hasNext()) {
+            SelectionKey key = iter.next();
+
+            try {
+                if (key.isValid() && key.isConnectable()) {
+                    if (((ChannelAttachment) key.attachment()).isPooled()) {
+                        upstreamPool.finishConnect(key);
+                    } else {
+                        destConnector.finishConnect(key);
+                    }
+                }
+                if (key.isValid() && key.isAcceptable()) {
+                    reader.acceptBound(key);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read(key);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    writer.write(key);
+                }
+            } catch (CancelledKeyException | IOException e) {
+                closeClient(key, e);
+            }
+
+            iter.remove();
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        ((ChannelAttachment) key.attachment()).setLastReadLoop(loopCount);
+        if (reader.read(key)) {
+            nextContinuedReads.add(key);
+            metrics.onReadBudgetExhausted();
+        }
+    }
+
+    private void continueReads() throws IOException {
+        for (SelectionKey key : continuedReads) {
+            if (!key.isValid() || !isReadPending((ChannelAttachment) key.attachment())) {
+                continue;
+            }
+            try {
+                read(key);
+            } catch (CancelledKeyException | IOException e) {
+                closeClient(key, e);
+            }
+        }
+
+        List<SelectionKey> keys = continuedReads;
+        continuedReads = nextContinuedReads;
+        nextContinuedReads = keys;
+        nextContinuedReads.clear();
+    }
+
+    private boolean isReadPending(ChannelAttachment attachment) {
+        if (attachment.getLastReadLoop() == loopCount) {
+            return false;
+        }
+        SocksClient socksClient = attachment.getSocksClient();
+        int interest = attachment.isClient() ? socksClient.getClientInterest() : socksClient.getDestInterest();
+        return socksClient.getSocksClientState() == SocksClientState.ACTIVE && (interest & OP_READ) != 0;
+    }
+
+    private void closeClient(SelectionKey key, Exception cause) throws IOException {
+        SocksClient socksClient = ((ChannelAttachment) key.attachment()).getSocksClient();
+        if (socksClient == null) {
+            throw new IOException(cause);
+        }
+
+        logger.debug("Closing client after {}", cause.toString());
+        socksClient.close();
+    }
+}
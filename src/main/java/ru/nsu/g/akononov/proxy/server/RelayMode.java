@@ -0,0 +1,6 @@
+package ru.nsu.g.akononov.proxy.server;
+
+public enum RelayMode {
+    BUFFERED,
+    DIRECT
+}
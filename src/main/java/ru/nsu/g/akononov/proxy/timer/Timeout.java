@@ -0,0 +1,36 @@
+package ru.nsu.g.akononov.proxy.timer;
+
+public class Timeout {
+    private final TimingWheel wheel;
+    private final TimerTask task;
+    private final long deadline;
+
+    long remainingRounds;
+    int slot = -1;
+    Timeout prev;
+    Timeout next;
+
+    Timeout(TimingWheel wheel, TimerTask task, long deadline) {
+        this.wheel = wheel;
+        this.task = task;
+        this.deadline = deadline;
+    }
+
+    public void cancel() {
+        if (slot >= 0) {
+            wheel.remove(this);
+        }
+    }
+
+    public boolean isPending() {
+        return slot >= 0;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    void expire() {
+        task.onTimeout(this);
+    }
+}
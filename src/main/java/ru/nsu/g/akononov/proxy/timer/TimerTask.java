@@ -0,0 +1,5 @@
+package ru.nsu.g.akononov.proxy.timer;
+
+public interface TimerTask {
+    void onTimeout(Timeout timeout);
+}
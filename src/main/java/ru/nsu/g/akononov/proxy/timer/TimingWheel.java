@@ -0,0 +1,123 @@
+package ru.nsu.g.akononov.proxy.timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+public class TimingWheel {
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class.getSimpleName());
+
+    private final long tickDuration;
+    private final Timeout[] slots;
+    private final int mask;
+
+    private long currentTick;
+    private long now;
+    private int pendingCount = 0;
+
+    public TimingWheel(long tickDuration, int wheelSize) {
+        if (tickDuration < 1 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Tick must be positive and wheel size a power of two");
+        }
+        this.tickDuration = tickDuration;
+        this.slots = new Timeout[wheelSize];
+        this.mask = wheelSize - 1;
+
+        now = currentTime();
+        currentTick = now / tickDuration;
+    }
+
+    public static long currentTime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    public long now() {
+        return now;
+    }
+
+    public Timeout schedule(long delay, TimerTask task) {
+        long deadline = now + Math.max(0, delay);
+        Timeout timeout = new Timeout(this, task, deadline);
+
+        long deadlineTick = Math.max((deadline + tickDuration - 1) / tickDuration, currentTick + 1);
+        timeout.remainingRounds = (deadlineTick - currentTick - 1) / slots.length;
+        timeout.slot = (int) (deadlineTick & mask);
+
+        Timeout head = slots[timeout.slot];
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        slots[timeout.slot] = timeout;
+        ++pendingCount;
+        return timeout;
+    }
+
+    void remove(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = -1;
+        --pendingCount;
+    }
+
+    public long getSelectTimeout() {
+        if (pendingCount == 0) {
+            return 0;
+        }
+        long nextTickTime = (currentTick + 1) * tickDuration;
+        return Math.max(1, nextTickTime - currentTime());
+    }
+
+    public void advance() {
+        now = currentTime();
+        long targetTick = now / tickDuration;
+
+        while (currentTick < targetTick) {
+            ++currentTick;
+            if (pendingCount > 0) {
+                expireSlot((int) (currentTick & mask));
+            }
+        }
+    }
+
+    private void expireSlot(int slot) {
+        Timeout expired = null;
+
+        Timeout timeout = slots[slot];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.remainingRounds <= 0) {
+                remove(timeout);
+                timeout.next = expired;
+                expired = timeout;
+            } else {
+                --timeout.remainingRounds;
+            }
+            timeout = next;
+        }
+
+        while (expired != null) {
+            Timeout next = expired.next;
+            expired.next = null;
+            try {
+                expired.expire();
+            } catch (RuntimeException e) {
+                logger.error("Timer task failed", e);
+            }
+            expired = next;
+        }
+    }
+
+    public int getPendingCount() {
+        return pendingCount;
+    }
+}
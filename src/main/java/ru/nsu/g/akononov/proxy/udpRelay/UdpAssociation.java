@@ -0,0 +1,70 @@
+package ru.nsu.g.akononov.proxy.udpRelay;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+
+public class UdpAssociation {
+    private final DatagramChannel channel;
+    private final SelectionKey selectionKey;
+    private final InetAddress clientAddress;
+    private InetSocketAddress clientEndpoint;
+
+    private byte[] lastTargetBytes;
+    private InetSocketAddress lastTarget;
+
+    private SocketAddress lastSource;
+    private byte[] lastSourceHeader;
+
+    UdpAssociation(DatagramChannel channel, SelectionKey selectionKey, InetAddress clientAddress,
+                   InetSocketAddress clientEndpoint) {
+        this.channel = channel;
+        this.selectionKey = selectionKey;
+        this.clientAddress = clientAddress;
+        this.clientEndpoint = clientEndpoint;
+    }
+
+    boolean isFromClient(InetSocketAddress sender) {
+        if (clientEndpoint == null && sender.getAddress().equals(clientAddress)) {
+            clientEndpoint = sender;
+        }
+        return sender.equals(clientEndpoint);
+    }
+
+    InetSocketAddress getClientEndpoint() {
+        return clientEndpoint;
+    }
+
+    byte[] getLastTargetBytes() {
+        return lastTargetBytes;
+    }
+
+    InetSocketAddress getLastTarget() {
+        return lastTarget;
+    }
+
+    void setLastTarget(byte[] targetBytes, InetSocketAddress target) {
+        this.lastTargetBytes = targetBytes;
+        this.lastTarget = target;
+    }
+
+    byte[] getSourceHeader(SocketAddress source) {
+        if (!source.equals(lastSource)) {
+            lastSource = source;
+            lastSourceHeader = null;
+        }
+        return lastSourceHeader;
+    }
+
+    void setSourceHeader(byte[] header) {
+        lastSourceHeader = header;
+    }
+
+    public void close() throws IOException {
+        selectionKey.cancel();
+        channel.close();
+    }
+}
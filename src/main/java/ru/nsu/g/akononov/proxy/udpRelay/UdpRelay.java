@@ -0,0 +1,159 @@
+package ru.nsu.g.akononov.proxy.udpRelay;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xbill.DNS.TextParseException;
+import ru.nsu.g.akononov.proxy.channelAttacments.ChannelAttachment;
+import ru.nsu.g.akononov.proxy.channelAttacments.ChannelRole;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+import ru.nsu.g.akononov.proxy.dnsResolver.DnsResolver;
+import ru.nsu.g.akononov.proxy.messages.connectionMessages.AddressType;
+import ru.nsu.g.akononov.proxy.messages.udpMessages.UdpHeader;
+import ru.nsu.g.akononov.proxy.timer.TimingWheel;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+public class UdpRelay {
+    private static final Logger logger = LoggerFactory.getLogger(UdpRelay.class.getSimpleName());
+
+    private static final int MAX_DATAGRAM_SIZE = 65535;
+
+    private final Selector selector;
+    private final DnsResolver dnsResolver;
+    private final TimingWheel timingWheel;
+    private final int batchSize;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(UdpHeader.MAX_SIZE + MAX_DATAGRAM_SIZE);
+    private final UdpHeader header = new UdpHeader();
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    public UdpRelay(Selector selector, DnsResolver dnsResolver, TimingWheel timingWheel, int batchSize) {
+        this.selector = selector;
+        this.dnsResolver = dnsResolver;
+        this.timingWheel = timingWheel;
+        this.batchSize = batchSize;
+    }
+
+    public InetSocketAddress associate(SocksClient socksClient, int clientPort) throws IOException {
+        SocketChannel clientChannel = (SocketChannel) socksClient.getClientSelectionKey().channel();
+        InetAddress localAddress = ((InetSocketAddress) clientChannel.getLocalAddress()).getAddress();
+        InetAddress clientAddress = ((InetSocketAddress) clientChannel.getRemoteAddress()).getAddress();
+
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(localAddress, 0));
+            SelectionKey selectionKey = channel.register(selector, SelectionKey.OP_READ,
+                    new ChannelAttachment(socksClient, ChannelRole.UDP));
+
+            InetSocketAddress clientEndpoint = clientPort != 0 ? new InetSocketAddress(clientAddress, clientPort) : null;
+            socksClient.setUdpAssociation(new UdpAssociation(channel, selectionKey, clientAddress, clientEndpoint));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        InetSocketAddress boundAddress = (InetSocketAddress) channel.getLocalAddress();
+        logger.debug("UDP association for {} on port {}", clientAddress, boundAddress.getPort());
+        return boundAddress;
+    }
+
+    public void read(SelectionKey selectionKey) throws IOException {
+        SocksClient socksClient = ((ChannelAttachment) selectionKey.attachment()).getSocksClient();
+        UdpAssociation association = socksClient.getUdpAssociation();
+        DatagramChannel channel = (DatagramChannel) selectionKey.channel();
+
+        for (int i = 0; i < batchSize; ++i) {
+            buffer.clear().position(UdpHeader.MAX_SIZE);
+            InetSocketAddress sender = (InetSocketAddress) channel.receive(buffer);
+            if (sender == null) {
+                break;
+            }
+            buffer.limit(buffer.position()).position(UdpHeader.MAX_SIZE);
+
+            if (association.isFromClient(sender)) {
+                relayFromClient(association, channel);
+            } else {
+                relayToClient(association, channel, sender);
+            }
+        }
+        socksClient.touch(timingWheel.now());
+    }
+
+    private void relayFromClient(UdpAssociation association, DatagramChannel channel) throws IOException {
+        if (!header.read(buffer)) {
+            droppedCount.increment();
+            return;
+        }
+
+        InetSocketAddress target = association.getLastTarget();
+        if (!header.addressEquals(association.getLastTargetBytes())) {
+            target = resolveTarget();
+            if (target == null) {
+                droppedCount.increment();
+                return;
+            }
+            association.setLastTarget(header.copyAddress(), target);
+        }
+
+        buffer.position(buffer.position() + header.getLength());
+        send(channel, target);
+    }
+
+    private InetSocketAddress resolveTarget() throws IOException {
+        if (header.getAddressType() != AddressType.DOMAIN_NAME) {
+            return new InetSocketAddress(header.getAddress(), header.getPort());
+        }
+
+        try {
+            InetAddress address = dnsResolver.lookup(header.getDomain());
+            return address != null ? new InetSocketAddress(address, header.getPort()) : null;
+        } catch (TextParseException e) {
+            return null;
+        }
+    }
+
+    private void relayToClient(UdpAssociation association, DatagramChannel channel, InetSocketAddress sender) {
+        InetSocketAddress clientEndpoint = association.getClientEndpoint();
+        if (clientEndpoint == null) {
+            droppedCount.increment();
+            return;
+        }
+
+        byte[] sourceHeader = association.getSourceHeader(sender);
+        if (sourceHeader == null) {
+            sourceHeader = UdpHeader.toBytes(sender);
+            association.setSourceHeader(sourceHeader);
+        }
+
+        int start = UdpHeader.MAX_SIZE - sourceHeader.length;
+        buffer.position(start);
+        buffer.put(sourceHeader);
+        buffer.position(start);
+        send(channel, clientEndpoint);
+    }
+
+    private void send(DatagramChannel channel, InetSocketAddress target) {
+        try {
+            if (channel.send(buffer, target) == 0) {
+                droppedCount.increment();
+            }
+        } catch (IOException e) {
+            droppedCount.increment();
+            logger.debug("Cannot send datagram to {}: {}", target, e.getMessage());
+        }
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+}
@@ -0,0 +1,39 @@
+package ru.nsu.g.akononov.proxy.upstreamPool;
+
+import ru.nsu.g.akononov.proxy.channelAttacments.ChannelAttachment;
+import ru.nsu.g.akononov.proxy.channelAttacments.ChannelRole;
+import ru.nsu.g.akononov.proxy.timer.Timeout;
+
+import java.nio.channels.SelectionKey;
+
+class PooledConnection extends ChannelAttachment {
+    private final UpstreamTarget target;
+    private final SelectionKey selectionKey;
+    private Timeout expiry;
+
+    PooledConnection(UpstreamTarget target, SelectionKey selectionKey) {
+        super(null, ChannelRole.POOLED);
+        this.target = target;
+        this.selectionKey = selectionKey;
+    }
+
+    UpstreamTarget getTarget() {
+        return target;
+    }
+
+    SelectionKey getSelectionKey() {
+        return selectionKey;
+    }
+
+    void setExpiry(Timeout expiry) {
+        cancelExpiry();
+        this.expiry = expiry;
+    }
+
+    void cancelExpiry() {
+        if (expiry != null) {
+            expiry.cancel();
+            expiry = null;
+        }
+    }
+}
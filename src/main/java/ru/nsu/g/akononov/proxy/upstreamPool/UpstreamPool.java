@@ -0,0 +1,254 @@
+package ru.nsu.g.akononov.proxy.upstreamPool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.nsu.g.akononov.proxy.channelAttacments.ChannelAttachment;
+import ru.nsu.g.akononov.proxy.channelAttacments.ChannelRole;
+import ru.nsu.g.akononov.proxy.channelClient.SocksClient;
+import ru.nsu.g.akononov.proxy.timer.TimingWheel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.channels.SelectionKey.OP_CONNECT;
+import static java.nio.channels.SelectionKey.OP_READ;
+
+public class UpstreamPool {
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamPool.class.getSimpleName());
+
+    private static final long RETRY_DELAY = 1000;
+
+    private final Selector selector;
+    private final TimingWheel timingWheel;
+    private final int poolSize;
+    private final long maxIdle;
+
+    private final List<UpstreamTarget> targets = new ArrayList<>();
+    private final Map<String, UpstreamTarget> targetsByKey = new HashMap<>();
+    private final ByteBuffer probe = ByteBuffer.allocate(1);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleCount = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+
+    public UpstreamPool(Selector selector, TimingWheel timingWheel, List<InetSocketAddress> addresses,
+                        int poolSize, long maxIdle) {
+        this.selector = selector;
+        this.timingWheel = timingWheel;
+        this.poolSize = poolSize;
+        this.maxIdle = maxIdle;
+
+        for (InetSocketAddress address : addresses) {
+            UpstreamTarget target = new UpstreamTarget(address);
+            targets.add(target);
+            targetsByKey.put(toKey(address.getHostString(), address.getPort()), target);
+            targetsByKey.putIfAbsent(toKey(address.getAddress().getHostAddress(), address.getPort()), target);
+        }
+    }
+
+    public boolean isEnabled() {
+        return !targets.isEmpty();
+    }
+
+    public void start() {
+        for (UpstreamTarget target : targets) {
+            topUp(target);
+        }
+    }
+
+    public boolean take(SocksClient socksClient, String host, int port) {
+        UpstreamTarget target = targetsByKey.get(toKey(host, port));
+        if (target == null) {
+            return false;
+        }
+
+        PooledConnection connection;
+        while ((connection = target.pollIdle()) != null) {
+            connection.cancelExpiry();
+            if (isAlive(connection)) {
+                handOver(socksClient, connection);
+                hits.increment();
+                topUp(target);
+                return true;
+            }
+            staleCount.increment();
+            close(connection);
+        }
+
+        misses.increment();
+        topUp(target);
+        return false;
+    }
+
+    private void handOver(SocksClient socksClient, PooledConnection connection) {
+        SelectionKey selectionKey = connection.getSelectionKey();
+        selectionKey.attach(new ChannelAttachment(socksClient, ChannelRole.DESTINATION));
+
+        socksClient.setDestSelectionKey(selectionKey);
+        socksClient.setDestSocketChannel((SocketChannel) selectionKey.channel());
+        socksClient.setDestAddress(connection.getTarget().getAddress());
+        logger.debug("Pooled connection to {} taken", connection.getTarget().getAddress());
+    }
+
+    public void finishConnect(SelectionKey selectionKey) {
+        PooledConnection connection = (PooledConnection) selectionKey.attachment();
+        UpstreamTarget target = connection.getTarget();
+
+        try {
+            if (!((SocketChannel) selectionKey.channel()).finishConnect()) {
+                return;
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot pre-connect to {}: {}", target.getAddress(), e.getMessage());
+            target.onConnectFinished();
+            failedCount.increment();
+            close(connection);
+            scheduleRetry(target);
+            return;
+        }
+
+        target.onConnectFinished();
+        onConnected(connection);
+    }
+
+    public void read(SelectionKey selectionKey) {
+        PooledConnection connection = (PooledConnection) selectionKey.attachment();
+        if (isAlive(connection)) {
+            return;
+        }
+
+        UpstreamTarget target = connection.getTarget();
+        logger.debug("Pooled connection to {} went stale", target.getAddress());
+        staleCount.increment();
+        connection.cancelExpiry();
+        target.removeIdle(connection);
+        close(connection);
+        topUp(target);
+    }
+
+    private void topUp(UpstreamTarget target) {
+        while (target.getSize() < poolSize && !target.isRetryScheduled()) {
+            if (!open(target)) {
+                failedCount.increment();
+                scheduleRetry(target);
+            }
+        }
+    }
+
+    private boolean open(UpstreamTarget target) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            boolean connected = channel.connect(target.getAddress());
+
+            SelectionKey selectionKey = channel.register(selector, connected ? 0 : OP_CONNECT);
+            PooledConnection connection = new PooledConnection(target, selectionKey);
+            selectionKey.attach(connection);
+
+            if (connected) {
+                onConnected(connection);
+            } else {
+                target.onConnectStarted();
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warn("Cannot pre-connect to {}: {}", target.getAddress(), e.getMessage());
+            closeQuietly(channel);
+            return false;
+        }
+    }
+
+    private void onConnected(PooledConnection connection) {
+        connection.getSelectionKey().interestOps(OP_READ);
+        connection.setExpiry(timingWheel.schedule(maxIdle, timeout -> expire(connection)));
+        connection.getTarget().addIdle(connection);
+    }
+
+    private void expire(PooledConnection connection) {
+        UpstreamTarget target = connection.getTarget();
+        expiredCount.increment();
+        target.removeIdle(connection);
+        close(connection);
+        topUp(target);
+    }
+
+    private void scheduleRetry(UpstreamTarget target) {
+        if (target.isRetryScheduled()) {
+            return;
+        }
+        target.setRetry(timingWheel.schedule(RETRY_DELAY, timeout -> {
+            target.setRetry(null);
+            topUp(target);
+        }));
+    }
+
+    private boolean isAlive(PooledConnection connection) {
+        probe.clear();
+        try {
+            return ((SocketChannel) connection.getSelectionKey().channel()).read(probe) == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void close(PooledConnection connection) {
+        connection.getSelectionKey().cancel();
+        closeQuietly((SocketChannel) connection.getSelectionKey().channel());
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Cannot close channel: {}", e.getMessage());
+        }
+    }
+
+    private static String toKey(String host, int port) {
+        return host.toLowerCase(Locale.ROOT) + ':' + port;
+    }
+
+    public int getIdleCount() {
+        int idleCount = 0;
+        for (UpstreamTarget target : targets) {
+            idleCount += target.getIdleCount();
+        }
+        return idleCount;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getStaleCount() {
+        return staleCount.sum();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+}
@@ -0,0 +1,64 @@
+package ru.nsu.g.akononov.proxy.upstreamPool;
+
+import ru.nsu.g.akononov.proxy.timer.Timeout;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+class UpstreamTarget {
+    private final InetSocketAddress address;
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+
+    private int connecting = 0;
+    private volatile int idleCount = 0;
+    private Timeout retry;
+
+    UpstreamTarget(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    int getSize() {
+        return idle.size() + connecting;
+    }
+
+    void onConnectStarted() {
+        ++connecting;
+    }
+
+    void onConnectFinished() {
+        --connecting;
+    }
+
+    void addIdle(PooledConnection connection) {
+        idle.addLast(connection);
+        idleCount = idle.size();
+    }
+
+    void removeIdle(PooledConnection connection) {
+        idle.remove(connection);
+        idleCount = idle.size();
+    }
+
+    PooledConnection pollIdle() {
+        PooledConnection connection = idle.pollFirst();
+        idleCount = idle.size();
+        return connection;
+    }
+
+    int getIdleCount() {
+        return idleCount;
+    }
+
+    boolean isRetryScheduled() {
+        return retry != null;
+    }
+
+    void setRetry(Timeout retry) {
+        this.retry = retry;
+    }
+}